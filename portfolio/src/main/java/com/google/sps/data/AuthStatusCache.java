@@ -0,0 +1,224 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.users.UserService;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Short-lived, HMAC-signed cookie caching whether the user is logged in and as whom, so requests
+ * can be authenticated without calling UserService.
+ *
+ * The signed value includes a digest of the App Engine login cookie, so logging in or out
+ * invalidates the cached status immediately rather than when it expires.
+ */
+public final class AuthStatusCache {
+  static final String COOKIE_NAME = "sps-auth";
+  static final int TTL_SECONDS = 300;
+
+  /** Cookies App Engine uses to carry the login session, in production and on the dev server. */
+  private static final String[] LOGIN_COOKIES = {"SACSID", "ACSID", "dev_appserver_login"};
+
+  private static final String SECRET_KIND = "Secret";
+  private static final String SECRET_NAME = "auth-status-hmac";
+  private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder decoder = Base64.getUrlDecoder();
+
+  private static final Map<String, String> loginUrls = new ConcurrentHashMap<>();
+  private static final Map<String, String> logoutUrls = new ConcurrentHashMap<>();
+  private static volatile byte[] secret;
+
+  private AuthStatusCache() {}
+
+  /** Verified authentication status read from a request's cookie. */
+  public static class Status {
+    private final boolean isLoggedIn;
+    private final String userEmail;
+
+    Status(boolean isLoggedIn, @Nullable String userEmail) {
+      this.isLoggedIn = isLoggedIn;
+      this.userEmail = userEmail;
+    }
+
+    public boolean isLoggedIn() {
+      return this.isLoggedIn;
+    }
+
+    @Nullable
+    public String getUserEmail() {
+      return this.userEmail;
+    }
+  }
+
+  /** Return the cached status if the request carries a valid, unexpired cookie for its current login session. */
+  @Nullable
+  public static Status read(HttpServletRequest request) {
+    String value = cookieValue(request, COOKIE_NAME);
+    if (value == null) {
+      return null;
+    }
+    int signatureStart = value.lastIndexOf('.');
+    if (signatureStart < 0) {
+      return null;
+    }
+    String payload = value.substring(0, signatureStart);
+    byte[] signature;
+    try {
+      signature = decoder.decode(value.substring(signatureStart + 1));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    if (!MessageDigest.isEqual(signature, sign(payload))) {
+      return null;
+    }
+
+    // payload is loggedIn.email.expiry.session, each part base64url or decimal
+    String[] parts = payload.split("\\.", -1);
+    if (parts.length != 4) {
+      return null;
+    }
+    long expiry = Long.parseLong(parts[2]);
+    if (System.currentTimeMillis() > expiry || !parts[3].equals(sessionDigest(request))) {
+      return null;
+    }
+    boolean isLoggedIn = parts[0].equals("1");
+    String userEmail = isLoggedIn ? new String(decoder.decode(parts[1]), StandardCharsets.UTF_8) : null;
+    return new Status(isLoggedIn, userEmail);
+  }
+
+  /** Set a signed cookie caching the status looked up from UserService. */
+  public static void write(HttpServletRequest request, HttpServletResponse response, boolean isLoggedIn,
+      @Nullable String userEmail) {
+    String email = isLoggedIn && userEmail != null ? encoder.encodeToString(userEmail.getBytes(StandardCharsets.UTF_8)) : "";
+    long expiry = System.currentTimeMillis() + TTL_SECONDS * 1000L;
+    String payload = (isLoggedIn ? "1" : "0") + "." + email + "." + expiry + "." + sessionDigest(request);
+    Cookie cookie = new Cookie(COOKIE_NAME, payload + "." + encoder.encodeToString(sign(payload)));
+    cookie.setPath("/");
+    cookie.setMaxAge(TTL_SECONDS);
+    cookie.setHttpOnly(true);
+    cookie.setSecure(request.isSecure());
+    response.addCookie(cookie);
+  }
+
+  /** Login URL for a redirect target, created once per host and target. */
+  public static String loginUrl(UserService userService, HttpServletRequest request, String destination) {
+    return loginUrls.computeIfAbsent(urlKey(request, destination), key -> userService.createLoginURL(destination));
+  }
+
+  /** Logout URL for a redirect target, created once per host and target. */
+  public static String logoutUrl(UserService userService, HttpServletRequest request, String destination) {
+    return logoutUrls.computeIfAbsent(urlKey(request, destination), key -> userService.createLogoutURL(destination));
+  }
+
+  /** Load the signing key and the HMAC implementation, so the first request does not wait for them. */
+  public static void warmUp() {
+    sign("");
+  }
+
+  private static String urlKey(HttpServletRequest request, String destination) {
+    return request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort() + " " + destination;
+  }
+
+  private static String sessionDigest(HttpServletRequest request) {
+    StringBuilder session = new StringBuilder();
+    for (String name : LOGIN_COOKIES) {
+      String value = cookieValue(request, name);
+      session.append(name).append('=').append(value == null ? "" : value).append(';');
+    }
+    return encoder.encodeToString(Arrays.copyOf(sign(session.toString()), 12));
+  }
+
+  @Nullable
+  private static String cookieValue(HttpServletRequest request, String name) {
+    Cookie[] cookies = request.getCookies();
+    if (cookies == null) {
+      return null;
+    }
+    for (Cookie cookie : cookies) {
+      if (cookie.getName().equals(name)) {
+        return cookie.getValue();
+      }
+    }
+    return null;
+  }
+
+  private static byte[] sign(String payload) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(secret(), "HmacSHA256"));
+      return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HmacSHA256 is required of every Java platform", e);
+    }
+  }
+
+  /** Load the signing key shared by all instances, creating it on first use. */
+  private static byte[] secret() {
+    byte[] key = secret;
+    if (key != null) {
+      return key;
+    }
+    synchronized (AuthStatusCache.class) {
+      if (secret == null) {
+        secret = loadOrCreateSecret();
+      }
+      return secret;
+    }
+  }
+
+  private static byte[] loadOrCreateSecret() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key key = KeyFactory.createKey(SECRET_KIND, SECRET_NAME);
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity entity;
+      try {
+        entity = datastore.get(txn, key);
+      } catch (EntityNotFoundException e) {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        entity = new Entity(key);
+        entity.setUnindexedProperty("value", encoder.encodeToString(bytes));
+        datastore.put(txn, entity);
+      }
+      txn.commit();
+      return decoder.decode((String) entity.getProperty("value"));
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+}
@@ -0,0 +1,43 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.concurrent.ThreadFactory;
+
+/** Threads for work that outlives the request that started it, for use off App Engine. */
+final class BackgroundThreads {
+  private BackgroundThreads() {}
+
+  /**
+   * Get a factory for daemon threads. These are plain threads: App Engine only allows threads
+   * that outlive a request on manual or basic scaling, so code that runs there must not use them.
+   */
+  static ThreadFactory factory() {
+    return runnable -> {
+      Thread thread = new Thread(runnable);
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /** Name the threads a factory makes, whichever factory it is, so they can be told apart in thread dumps. */
+  static ThreadFactory named(ThreadFactory threadFactory, String name) {
+    return runnable -> {
+      Thread thread = threadFactory.newThread(runnable);
+      thread.setName(name);
+      return thread;
+    };
+  }
+}
@@ -14,26 +14,42 @@
 
 package com.google.sps.data;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 /**
  * Class representing the a destination recommendation comment.
  */
 public class Comment {
+  /** Properties that may be selected with withOnly, in canonical order; id is always kept. */
+  public static final List<String> SELECTABLE_FIELDS = Collections.unmodifiableList(
+      Arrays.asList("location", "displayedName", "link", "userEmail", "description"));
+
   private String location;
   private String link;
   private String description;
   private String id;
   private String userEmail;
   private String displayedName;
+  private Long timestamp;
+  private Float sentiment;
 
   public Comment(String location, String link, @Nullable String description, String id, String userEmail, String displayedName) {
+    this(location, link, description, id, userEmail, displayedName, null);
+  }
+
+  public Comment(String location, String link, @Nullable String description, String id, String userEmail, String displayedName,
+      @Nullable Long timestamp) {
     this.location = location;
     this.link = link;
     this.description = description;
     this.id = id;
     this.userEmail = userEmail;
     this.displayedName = displayedName;
+    this.timestamp = timestamp;
 
     if (this.description != null) {
       this.description = this.description.trim();
@@ -63,4 +79,37 @@ public class Comment {
   public String getDisplayedName() {
     return this.displayedName;
   }
-}
\ No newline at end of file
+
+  @Nullable
+  public Long getTimestamp() {
+    return this.timestamp;
+  }
+
+  /** Sentiment score from -1 (negative) to 1 (positive), or null until the comment has been scored. */
+  @Nullable
+  public Float getSentiment() {
+    return this.sentiment;
+  }
+
+  /** Return a copy carrying the given sentiment score. */
+  public Comment withSentiment(@Nullable Float sentiment) {
+    Comment scored = new Comment(location, link, description, id, userEmail, displayedName, timestamp);
+    scored.sentiment = sentiment;
+    return scored;
+  }
+
+  /** Return a copy holding only the selected fields; the rest are left null so Gson omits them. */
+  public Comment withOnly(Set<String> fields) {
+    if (fields.containsAll(SELECTABLE_FIELDS)) {
+      return this;
+    }
+    return new Comment(
+        fields.contains("location") ? this.location : null,
+        fields.contains("link") ? this.link : null,
+        fields.contains("description") ? this.description : null,
+        this.id,
+        fields.contains("userEmail") ? this.userEmail : null,
+        fields.contains("displayedName") ? this.displayedName : null,
+        null);
+  }
+}
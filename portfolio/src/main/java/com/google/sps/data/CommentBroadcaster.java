@@ -0,0 +1,167 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * In-process fan-out of newly posted comments to connected clients.
+ *
+ * Every subscriber has a bounded queue. Publishing never blocks: a subscriber whose queue is full
+ * is marked as overflowed and dropped, and is expected to reload its comments from scratch.
+ */
+public class CommentBroadcaster {
+  /** Capacity of each subscriber's queue. */
+  static final int QUEUE_CAPACITY = 64;
+
+  /** Number of recent events kept so reconnecting clients can catch up. */
+  static final int HISTORY_SIZE = 64;
+
+  private static final CommentBroadcaster shared = new CommentBroadcaster();
+
+  private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+  private final ArrayDeque<Event> history = new ArrayDeque<>();
+  private long lastEventId = 0;
+
+  /** Get the broadcaster shared by the servlets of this instance. */
+  public static CommentBroadcaster get() {
+    return shared;
+  }
+
+  /** A published comment and its position in the stream. */
+  public static class Event {
+    private final long id;
+    private final Comment comment;
+
+    Event(long id, Comment comment) {
+      this.id = id;
+      this.comment = comment;
+    }
+
+    public long getId() {
+      return this.id;
+    }
+
+    public Comment getComment() {
+      return this.comment;
+    }
+  }
+
+  /** One connected client. */
+  public class Subscription {
+    private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Consumer<Subscription> onReady;
+    private volatile boolean overflowed = false;
+    private long resumeId;
+
+    private Subscription(Consumer<Subscription> onReady) {
+      this.onReady = onReady;
+    }
+
+    /**
+     * Id of the last event the client has seen once the events already queued are written, for it
+     * to send back as Last-Event-ID if it reconnects before any newer one arrives.
+     */
+    public long getResumeId() {
+      return this.resumeId;
+    }
+
+    /** Take every queued event. */
+    public List<Event> drain() {
+      List<Event> events = new ArrayList<>();
+      queue.drainTo(events);
+      return events;
+    }
+
+    /** Whether events were dropped for this client, so it must reload instead of applying deltas. */
+    public boolean isOverflowed() {
+      return this.overflowed;
+    }
+
+    /** Stop receiving events. */
+    public void close() {
+      subscriptions.remove(this);
+    }
+
+    private void offer(Event event) {
+      if (!queue.offer(event)) {
+        overflowed = true;
+        close();
+      }
+    }
+  }
+
+  /**
+   * Register a client.
+   *
+   * @param lastEventId id of the last event the client saw, or 0 for a new client
+   * @param onReady called, possibly on the publishing thread, whenever events are ready to drain;
+   *     it must not block
+   * @return the new subscription, already holding any missed events still in history
+   */
+  public Subscription subscribe(long lastEventId, Consumer<Subscription> onReady) {
+    Subscription subscription = new Subscription(onReady);
+    synchronized (this) {
+      subscription.resumeId = lastEventId > 0 ? lastEventId : this.lastEventId;
+      if (lastEventId > 0) {
+        Event oldest = history.peekFirst();
+        long oldestKept = oldest == null ? this.lastEventId + 1 : oldest.getId();
+        if (lastEventId < oldestKept - 1 || lastEventId > this.lastEventId) {
+          // the missed events are gone, or the id came from another instance
+          subscription.overflowed = true;
+          return subscription;
+        }
+        for (Event event : history) {
+          if (event.getId() > lastEventId) {
+            subscription.offer(event);
+          }
+        }
+      }
+      subscriptions.add(subscription);
+    }
+    return subscription;
+  }
+
+  /** Send a new comment to every connected client. */
+  public void publish(Comment comment) {
+    List<Subscription> ready = new ArrayList<>();
+    synchronized (this) {
+      Event event = new Event(++lastEventId, comment);
+      history.addLast(event);
+      if (history.size() > HISTORY_SIZE) {
+        history.removeFirst();
+      }
+      for (Subscription subscription : subscriptions) {
+        subscription.offer(event);
+        ready.add(subscription);
+      }
+    }
+    for (Subscription subscription : ready) {
+      subscription.onReady.accept(subscription);
+    }
+  }
+
+  /** Number of connected clients. */
+  public int size() {
+    return subscriptions.size();
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import javax.annotation.Nullable;
+
+/**
+ * Sort key placing comments newest first, with ties broken by id. Used as the timestamp index of
+ * the local repositories and serialized as their cursor.
+ */
+final class CommentPosition implements Comparable<CommentPosition> {
+  private final long timestamp;
+  private final long id;
+
+  CommentPosition(long timestamp, long id) {
+    this.timestamp = timestamp;
+    this.id = id;
+  }
+
+  long getTimestamp() {
+    return this.timestamp;
+  }
+
+  long getId() {
+    return this.id;
+  }
+
+  /** Encode as an opaque cursor string. */
+  String toCursor() {
+    return Long.toString(timestamp, 36) + "." + Long.toString(id, 36);
+  }
+
+  /** Decode a cursor produced by toCursor, or return null for a missing or malformed cursor. */
+  @Nullable
+  static CommentPosition fromCursor(@Nullable String cursor) {
+    if (cursor == null) {
+      return null;
+    }
+    int dot = cursor.indexOf('.');
+    if (dot < 0) {
+      return null;
+    }
+    try {
+      return new CommentPosition(Long.parseLong(cursor.substring(0, dot), 36), Long.parseLong(cursor.substring(dot + 1), 36));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public int compareTo(CommentPosition other) {
+    int byTime = Long.compare(other.timestamp, this.timestamp);
+    return byTime != 0 ? byTime : Long.compare(other.id, this.id);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof CommentPosition
+        && ((CommentPosition) other).timestamp == this.timestamp
+        && ((CommentPosition) other).id == this.id;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(timestamp) * 31 + Long.hashCode(id);
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+/**
+ * Chooses the comment storage backend shared by the servlets.
+ *
+ * The backend is picked with the sps.commentRepository system property: "datastore" (the default),
+ * "memory", or "log", which keeps segment files in the directory named by sps.commentLogDir.
+ */
+public final class CommentRepositories {
+  private static volatile CommentRepository shared;
+
+  private CommentRepositories() {}
+
+  /** Get the configured repository, creating it on first use. */
+  public static CommentRepository get() {
+    CommentRepository repository = shared;
+    if (repository != null) {
+      return repository;
+    }
+    synchronized (CommentRepositories.class) {
+      if (shared == null) {
+        shared = create(System.getProperty("sps.commentRepository", "datastore"));
+      }
+      return shared;
+    }
+  }
+
+  /** Replace the shared repository, e.g. to run the servlets against a local backend in a load test. */
+  public static void set(CommentRepository repository) {
+    shared = repository;
+  }
+
+  private static CommentRepository create(String backend) {
+    switch (backend) {
+      case "memory":
+        return new InMemoryCommentRepository();
+      case "log":
+        try {
+          return new LogCommentRepository(Paths.get(System.getProperty("sps.commentLogDir", "comment-log")));
+        } catch (IOException e) {
+          throw new UncheckedIOException("Could not open comment log", e);
+        }
+      case "datastore":
+        return new DatastoreCommentRepository();
+      default:
+        throw new IllegalArgumentException("Unknown comment repository: " + backend);
+    }
+  }
+}
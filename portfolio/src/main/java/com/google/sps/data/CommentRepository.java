@@ -0,0 +1,90 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * Storage for destination recommendation comments, listed newest first.
+ *
+ * Implementations are safe to share between request threads.
+ */
+public interface CommentRepository {
+
+  /** One page of comments and the opaque cursor where the next page starts. */
+  class Page {
+    private final List<Comment> comments;
+    private final String cursor;
+
+    public Page(List<Comment> comments, @Nullable String cursor) {
+      this.comments = comments;
+      this.cursor = cursor;
+    }
+
+    public List<Comment> getComments() {
+      return this.comments;
+    }
+
+    @Nullable
+    public String getCursor() {
+      return this.cursor;
+    }
+  }
+
+  /**
+   * List comments newest first.
+   *
+   * @param cursor cursor returned with the previous page, or null to start from the newest comment
+   * @param limit maximum number of comments to return
+   * @param fields comment properties to fill in, a subset of Comment.SELECTABLE_FIELDS
+   * @return the page, whose cursor is only valid for requests selecting the same fields
+   */
+  Page list(@Nullable String cursor, int limit, Set<String> fields) throws IOException;
+
+  /**
+   * Start listing comments as list() does and return without waiting for them where the storage
+   * supports it, so the caller can make other reads meanwhile. By default the page is listed before
+   * returning.
+   */
+  default Future<Page> listAsync(@Nullable String cursor, int limit, Set<String> fields) throws IOException {
+    return CompletableFuture.completedFuture(list(cursor, limit, fields));
+  }
+
+  /** Number of stored comments. */
+  int count() throws IOException;
+
+  /** Store a new comment and return it with its assigned id. */
+  Comment add(String location, String link, @Nullable String description, String userEmail, String displayedName,
+      long timestamp) throws IOException;
+
+  /** Delete a comment; deleting a missing comment does nothing. */
+  void delete(long id) throws IOException;
+
+  /** Record sentiment scores for several comments in one batched write; missing ids are skipped. */
+  void updateSentiments(Map<Long, Float> scores) throws IOException;
+
+  /** Look up comments by id, in the order given, skipping ids that do not exist. */
+  List<Comment> get(List<Long> ids) throws IOException;
+
+  /** Visit every comment oldest first, e.g. to rebuild a derived index. */
+  void forEachOldestFirst(Consumer<Comment> visitor) throws IOException;
+}
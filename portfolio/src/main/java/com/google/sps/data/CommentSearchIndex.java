@@ -0,0 +1,229 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+
+/**
+ * In-memory inverted index over comment text supporting term and prefix queries.
+ *
+ * Each comment is given a dense int document number in insertion order, so postings lists are
+ * sorted by construction and stored as varint-encoded gaps between document numbers.
+ * Deleted comments are masked out until the next rebuild.
+ */
+public class CommentSearchIndex {
+  private static final CommentSearchIndex shared = new CommentSearchIndex();
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final TreeMap<String, Postings> terms = new TreeMap<>();
+  private final Map<Long, Integer> docsByCommentId = new HashMap<>();
+  private final BitSet deleted = new BitSet();
+  private long[] commentIds = new long[16];
+  private int numDocs = 0;
+
+  /** Get the index shared by the servlets of this instance. */
+  public static CommentSearchIndex get() {
+    return shared;
+  }
+
+  /**
+   * Index a comment. Comments should be added oldest first so that search results, which are
+   * returned newest first, follow comment order. Re-adding an indexed comment replaces it.
+   */
+  public void add(long commentId, @Nullable String... texts) {
+    lock.writeLock().lock();
+    try {
+      removeLocked(commentId);
+      int doc = numDocs++;
+      if (doc == commentIds.length) {
+        commentIds = Arrays.copyOf(commentIds, doc * 2);
+      }
+      commentIds[doc] = commentId;
+      docsByCommentId.put(commentId, doc);
+
+      TreeSet<String> docTerms = new TreeSet<>();
+      for (String text : texts) {
+        docTerms.addAll(tokenize(text));
+      }
+      for (String term : docTerms) {
+        terms.computeIfAbsent(term, t -> new Postings()).add(doc);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Remove a comment from search results. */
+  public void remove(long commentId) {
+    lock.writeLock().lock();
+    try {
+      removeLocked(commentId);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Drop every indexed comment, e.g. before a rebuild. */
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      terms.clear();
+      docsByCommentId.clear();
+      deleted.clear();
+      commentIds = new long[16];
+      numDocs = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Find comments matching every word in the query, newest first. A word ending in '*' matches any
+   * term starting with the rest of the word.
+   *
+   * @param query space separated words
+   * @param limit maximum number of comment ids to return
+   * @return ids of matching comments
+   */
+  public List<Long> search(String query, int limit) {
+    List<Long> results = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      BitSet matches = null;
+      for (String word : query.trim().split("\\s+")) {
+        boolean isPrefix = word.endsWith("*");
+        List<String> wordTerms = tokenize(isPrefix ? word.substring(0, word.length() - 1) : word);
+        for (int i = 0; i < wordTerms.size(); i++) {
+          boolean lastTerm = i == wordTerms.size() - 1;
+          BitSet docs = isPrefix && lastTerm ? prefixDocs(wordTerms.get(i)) : termDocs(wordTerms.get(i));
+          if (matches == null) {
+            matches = docs;
+          } else {
+            matches.and(docs);
+          }
+        }
+      }
+      if (matches == null) {
+        return results;
+      }
+      matches.andNot(deleted);
+      for (int doc = matches.previousSetBit(numDocs - 1); doc >= 0 && results.size() < limit;
+          doc = matches.previousSetBit(doc - 1)) {
+        results.add(commentIds[doc]);
+      }
+      return results;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Number of live comments in the index. */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return docsByCommentId.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Split text into lower case alphanumeric terms. */
+  static List<String> tokenize(@Nullable String text) {
+    List<String> tokens = new ArrayList<>();
+    if (text == null) {
+      return tokens;
+    }
+    for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+      if (!token.isEmpty()) {
+        tokens.add(token);
+      }
+    }
+    return tokens;
+  }
+
+  private void removeLocked(long commentId) {
+    Integer doc = docsByCommentId.remove(commentId);
+    if (doc != null) {
+      deleted.set(doc);
+    }
+  }
+
+  private BitSet termDocs(String term) {
+    BitSet docs = new BitSet(numDocs);
+    Postings postings = terms.get(term);
+    if (postings != null) {
+      postings.addTo(docs);
+    }
+    return docs;
+  }
+
+  private BitSet prefixDocs(String prefix) {
+    BitSet docs = new BitSet(numDocs);
+    NavigableMap<String, Postings> matching = terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    for (Postings postings : matching.values()) {
+      postings.addTo(docs);
+    }
+    return docs;
+  }
+
+  /** Sorted document numbers stored as varint-encoded gaps. */
+  private static class Postings {
+    private byte[] bytes = new byte[4];
+    private int length = 0;
+    private int lastDoc = 0;
+
+    void add(int doc) {
+      int gap = doc - lastDoc;
+      lastDoc = doc;
+      if (length + 5 > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+      }
+      while ((gap & ~0x7F) != 0) {
+        bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+        gap >>>= 7;
+      }
+      bytes[length++] = (byte) gap;
+    }
+
+    void addTo(BitSet docs) {
+      int doc = 0;
+      int pos = 0;
+      while (pos < length) {
+        int gap = 0;
+        int shift = 0;
+        byte b;
+        do {
+          b = bytes[pos++];
+          gap |= (b & 0x7F) << shift;
+          shift += 7;
+        } while ((b & 0x80) != 0);
+        doc += gap;
+        docs.set(doc);
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Version number of the Comment kind, bumped on every write so readers can tell whether comment
+ * listings may have changed. The counter lives in memcache so every instance sees the same value.
+ */
+public final class CommentStoreVersion {
+  /** Returned when memcache is unavailable and the version cannot be trusted. */
+  public static final long UNKNOWN = -1;
+
+  private static final String KEY = "comment-store-version";
+  private static final String CHANGED_KEY = "comment-store-changed";
+  private static final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  private CommentStoreVersion() {}
+
+  /**
+   * Get the current version. If the counter was evicted it restarts from the current time, which
+   * is larger than any version handed out before the eviction.
+   */
+  public static long current() {
+    Long version = memcache.increment(KEY, 0L, System.currentTimeMillis());
+    return version == null ? UNKNOWN : version;
+  }
+
+  /** Record that the comments changed. */
+  public static void bump() {
+    memcache.increment(KEY, 1L, System.currentTimeMillis());
+    memcache.put(CHANGED_KEY, System.currentTimeMillis());
+  }
+
+  /** Get the time of the last bump in milliseconds, or 0 if it is not known. */
+  public static long lastChangeMillis() {
+    Object changed = memcache.get(CHANGED_KEY);
+    return changed instanceof Long ? (Long) changed : 0;
+  }
+}
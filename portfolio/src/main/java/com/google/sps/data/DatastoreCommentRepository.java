@@ -0,0 +1,201 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/** Comment storage backed by the App Engine Datastore "Comment" kind. */
+public class DatastoreCommentRepository implements CommentRepository {
+  static final String KIND = "Comment";
+  private static final int SCAN_CHUNK_SIZE = 500;
+  private static final int MAX_XG_GROUPS = 25;
+
+  /**
+   * Field selections backed by a composite index in datastore-indexes.xml, in canonical order.
+   * Other selections are read as full entities and trimmed.
+   */
+  static final List<List<String>> PROJECTED_SELECTIONS = Arrays.asList(
+      Arrays.asList("location", "displayedName"),
+      Arrays.asList("location", "displayedName", "userEmail"),
+      Arrays.asList("location", "displayedName", "link", "userEmail"));
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final AsyncDatastoreService asyncDatastore = DatastoreServiceFactory.getAsyncDatastoreService();
+
+  @Override
+  public Page list(@Nullable String cursor, int limit, Set<String> fields) {
+    return toPage(runListQuery(cursor, limit, fields), fields);
+  }
+
+  /**
+   * The query is sent when this returns; the page is built from its results by the first get(), on
+   * the calling thread, so no other thread needs the request's API environment.
+   */
+  @Override
+  public Future<Page> listAsync(@Nullable String cursor, int limit, Set<String> fields) {
+    QueryResultList<Entity> results = runListQuery(cursor, limit, fields);
+    return new FutureTask<Page>(() -> toPage(results, fields)) {
+      @Override
+      public Page get() throws InterruptedException, ExecutionException {
+        run();
+        return super.get();
+      }
+    };
+  }
+
+  /** Start the list query; asynchronous Datastore queries return as soon as the request is sent. */
+  private QueryResultList<Entity> runListQuery(@Nullable String cursor, int limit, Set<String> fields) {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+
+    Query query = new Query(KIND).addSort("timestamp", SortDirection.DESCENDING);
+    if (PROJECTED_SELECTIONS.contains(new ArrayList<>(fields))) {
+      for (String field : fields) {
+        query.addProjection(new PropertyProjection(field, String.class));
+      }
+    }
+
+    return asyncDatastore.prepare(query).asQueryResultList(fetchOptions);
+  }
+
+  private static Page toPage(QueryResultList<Entity> results, Set<String> fields) {
+    List<Comment> comments = new ArrayList<>();
+    for (Entity e : results) {
+      comments.add(toComment(e).withOnly(fields));
+    }
+    Cursor end = results.getCursor();
+    return new Page(comments, end == null ? null : end.toWebSafeString());
+  }
+
+  @Override
+  public int count() {
+    return asyncDatastore.prepare(new Query(KIND).setKeysOnly()).countEntities(FetchOptions.Builder.withDefaults());
+  }
+
+  @Override
+  public Comment add(String location, String link, @Nullable String description, String userEmail, String displayedName,
+      long timestamp) {
+    Entity commentEntity = new Entity(KIND);
+    commentEntity.setProperty("location", location);
+    commentEntity.setProperty("link", link);
+    commentEntity.setProperty("description", description);
+    commentEntity.setProperty("userEmail", userEmail);
+    commentEntity.setProperty("displayedName", displayedName);
+    commentEntity.setProperty("timestamp", timestamp);
+    datastore.put(commentEntity);
+    return toComment(commentEntity);
+  }
+
+  @Override
+  public void delete(long id) {
+    datastore.delete(KeyFactory.createKey(KIND, id));
+  }
+
+  @Override
+  public void updateSentiments(Map<Long, Float> scores) {
+    // each comment is its own entity group; a cross-group transaction covers up to
+    // MAX_XG_GROUPS of them, so a batch of that size is one read and one write
+    List<Key> keys = new ArrayList<>();
+    for (long id : scores.keySet()) {
+      keys.add(KeyFactory.createKey(KIND, id));
+    }
+    for (int from = 0; from < keys.size(); from += MAX_XG_GROUPS) {
+      List<Key> chunk = keys.subList(from, Math.min(keys.size(), from + MAX_XG_GROUPS));
+      Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        Map<Key, Entity> found = datastore.get(txn, chunk);
+        List<Entity> updated = new ArrayList<>();
+        for (Key key : chunk) {
+          // a comment deleted since it was queued is skipped rather than written back
+          Entity e = found.get(key);
+          if (e != null) {
+            e.setUnindexedProperty("sentiment", scores.get(key.getId()));
+            updated.add(e);
+          }
+        }
+        datastore.put(txn, updated);
+        txn.commit();
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+  }
+
+  @Override
+  public List<Comment> get(List<Long> ids) {
+    List<Key> keys = new ArrayList<>();
+    for (long id : ids) {
+      keys.add(KeyFactory.createKey(KIND, id));
+    }
+    Map<Key, Entity> entities = datastore.get(keys);
+    List<Comment> comments = new ArrayList<>();
+    for (Key key : keys) {
+      Entity e = entities.get(key);
+      if (e != null) {
+        comments.add(toComment(e));
+      }
+    }
+    return comments;
+  }
+
+  @Override
+  public void forEachOldestFirst(Consumer<Comment> visitor) {
+    Query query = new Query(KIND).addSort("timestamp", SortDirection.ASCENDING);
+    for (Entity e : datastore.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(SCAN_CHUNK_SIZE))) {
+      visitor.accept(toComment(e));
+    }
+  }
+
+  /** Convert an entity, possibly from a projection query, into a Comment; missing properties become null. */
+  static Comment toComment(Entity e) {
+    String location = (String) e.getProperty("location");
+    String link = (String) e.getProperty("link");
+    String description = (String) e.getProperty("description");
+    long id = e.getKey().getId();
+    String userEmail = (String) e.getProperty("userEmail");
+    String displayedName = (String) e.getProperty("displayedName");
+    Long timestamp = (Long) e.getProperty("timestamp");
+    Number sentiment = (Number) e.getProperty("sentiment");
+    return new Comment(location, link, description, String.valueOf(id), userEmail, displayedName, timestamp)
+        .withSentiment(sentiment == null ? null : sentiment.floatValue());
+  }
+}
@@ -0,0 +1,344 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Resized, re-encoded copies of the gallery images, kept in a size-bounded directory of files that
+ * is evicted least recently used first.
+ *
+ * A derivative is named by a hash of its source image and its width, so it never changes once
+ * written. Decoding and resizing run on the request thread, a few at a time; when every decode
+ * slot is taken new work is turned away instead of piling up behind slow decodes.
+ */
+public class ImageDerivatives {
+  /** Widths derivatives are produced at; requested widths are rounded up to one of these. */
+  public static final int[] WIDTHS = {160, 320, 480, 640, 960, 1280, 1920};
+
+  /** App Engine's temporary directory is held in the instance's memory, so the cache is kept small. */
+  static final long MAX_CACHE_BYTES = 8L * 1024 * 1024;
+  static final int MAX_CONCURRENT_DECODES = 2;
+  static final float JPEG_QUALITY = 0.8f;
+
+  private static final Logger logger = Logger.getLogger(ImageDerivatives.class.getName());
+  private static volatile ImageDerivatives shared;
+
+  private final Path directory;
+  private final long maxBytes;
+  private final Semaphore decodes;
+  private final Map<String, String> sourceHashes = new ConcurrentHashMap<>();
+
+  /** Cached files by name, least recently used first; guarded by this. */
+  private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes = 0;
+
+  /** Supplies the bytes of a source image; only called when a derivative has to be built. */
+  public interface Source {
+    InputStream open() throws IOException;
+  }
+
+  /** A derivative stored in the cache. */
+  public static class Derivative {
+    private final Path path;
+    private final String tag;
+    private final String contentType;
+
+    Derivative(Path path, String tag, String contentType) {
+      this.path = path;
+      this.tag = tag;
+      this.contentType = contentType;
+    }
+
+    public Path getPath() {
+      return this.path;
+    }
+
+    /** Identifies the derivative's content, suitable for an ETag. */
+    public String getTag() {
+      return this.tag;
+    }
+
+    public String getContentType() {
+      return this.contentType;
+    }
+  }
+
+  /**
+   * @param directory where derivatives are written; files already there are adopted
+   * @param maxBytes total size of cached files before the least recently used are deleted
+   * @param maxConcurrentDecodes number of images decoded at once
+   */
+  public ImageDerivatives(Path directory, long maxBytes, int maxConcurrentDecodes) throws IOException {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.decodes = new Semaphore(maxConcurrentDecodes);
+    // encoded images are small, so keep ImageIO's stream buffers in memory rather than temp files
+    ImageIO.setUseCache(false);
+    Files.createDirectories(directory);
+    adoptExistingFiles();
+  }
+
+  /**
+   * Get the derivatives shared by the servlets. Files go in the directory named by the
+   * sps.imageCacheDir system property, or under the temporary directory, the only writable one on
+   * App Engine.
+   */
+  public static ImageDerivatives get() {
+    ImageDerivatives derivatives = shared;
+    if (derivatives != null) {
+      return derivatives;
+    }
+    synchronized (ImageDerivatives.class) {
+      if (shared == null) {
+        Path directory = Paths.get(System.getProperty("sps.imageCacheDir",
+            Paths.get(System.getProperty("java.io.tmpdir"), "sps-image-cache").toString()));
+        try {
+          shared = new ImageDerivatives(directory, MAX_CACHE_BYTES, MAX_CONCURRENT_DECODES);
+        } catch (IOException e) {
+          throw new UncheckedIOException("Could not open image cache", e);
+        }
+      }
+      return shared;
+    }
+  }
+
+  /** Round a requested width up to the nearest width derivatives are produced at. */
+  public static int snapWidth(int requested) {
+    for (int width : WIDTHS) {
+      if (width >= requested) {
+        return width;
+      }
+    }
+    return WIDTHS[WIDTHS.length - 1];
+  }
+
+  /**
+   * Get a derivative of an image, building it on the calling thread if it is not cached.
+   *
+   * @param name identifies the source image; PNG sources, named *.png, stay PNG and others become JPEG
+   * @param width one of WIDTHS; images narrower than this are re-encoded at their own width
+   * @return the derivative, or null if it is not cached and MAX_CONCURRENT_DECODES images are
+   *     already being decoded
+   */
+  @Nullable
+  public Derivative derive(String name, Source source, int width) throws IOException {
+    String sourceHash = sourceHashes.get(name);
+    if (sourceHash != null) {
+      Derivative cached = lookup(sourceHash, width, formatOf(name));
+      if (cached != null) {
+        return cached;
+      }
+    }
+    if (!decodes.tryAcquire()) {
+      return null;
+    }
+    try {
+      return build(name, source, width);
+    } finally {
+      decodes.release();
+    }
+  }
+
+  /** Total size of cached derivatives in bytes. */
+  public synchronized long cachedBytes() {
+    return this.totalBytes;
+  }
+
+  private Derivative build(String name, Source source, int width) throws IOException {
+    byte[] original;
+    try (InputStream in = source.open()) {
+      original = readAll(in);
+    }
+    String sourceHash = hash(original);
+    sourceHashes.put(name, sourceHash);
+    String format = formatOf(name);
+    Derivative cached = lookup(sourceHash, width, format);
+    if (cached != null) {
+      return cached;
+    }
+
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(original));
+    if (image == null) {
+      throw new IOException("Not a readable image: " + name);
+    }
+    byte[] encoded = encode(resize(image, Math.min(width, image.getWidth()), format.equals("png")), format);
+
+    String fileName = fileName(sourceHash, width, format);
+    Path temp = Files.createTempFile(directory, fileName, ".tmp");
+    Files.write(temp, encoded);
+    Path target = directory.resolve(fileName);
+    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    record(fileName, encoded.length);
+    return new Derivative(target, sourceHash + "-" + width, contentType(format));
+  }
+
+  /** Scale an image to a width, halving repeatedly first so bilinear filtering does not alias. */
+  static BufferedImage resize(BufferedImage source, int width, boolean keepAlpha) {
+    int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+    int type = keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    BufferedImage current = source;
+    int currentWidth = source.getWidth();
+    int currentHeight = source.getHeight();
+    do {
+      int nextWidth = Math.max(width, currentWidth / 2);
+      int nextHeight = nextWidth == width ? height : Math.max(height, currentHeight / 2);
+      BufferedImage next = new BufferedImage(nextWidth, nextHeight, type);
+      Graphics2D graphics = next.createGraphics();
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      graphics.drawImage(current, 0, 0, nextWidth, nextHeight, null);
+      graphics.dispose();
+      current = next;
+      currentWidth = nextWidth;
+      currentHeight = nextHeight;
+    } while (currentWidth != width);
+    return current;
+  }
+
+  private static byte[] encode(BufferedImage image, String format) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+    try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+      writer.setOutput(out);
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      if (format.equals("jpeg")) {
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(JPEG_QUALITY);
+        param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+      }
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+    return bytes.toByteArray();
+  }
+
+  private Derivative lookup(String sourceHash, int width, String format) {
+    String fileName = fileName(sourceHash, width, format);
+    synchronized (this) {
+      if (files.get(fileName) == null) {
+        return null;
+      }
+    }
+    return new Derivative(directory.resolve(fileName), sourceHash + "-" + width, contentType(format));
+  }
+
+  /** Add a written file and delete the least recently used ones until the cache fits. */
+  private void record(String fileName, long size) {
+    List<String> evicted = new ArrayList<>();
+    synchronized (this) {
+      Long previous = files.put(fileName, size);
+      totalBytes += size - (previous == null ? 0 : previous);
+      Iterator<Map.Entry<String, Long>> eldest = files.entrySet().iterator();
+      while (totalBytes > maxBytes && eldest.hasNext()) {
+        Map.Entry<String, Long> entry = eldest.next();
+        if (entry.getKey().equals(fileName)) {
+          continue;
+        }
+        totalBytes -= entry.getValue();
+        evicted.add(entry.getKey());
+        eldest.remove();
+      }
+    }
+    for (String name : evicted) {
+      try {
+        Files.deleteIfExists(directory.resolve(name));
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not delete cached image " + name, e);
+      }
+    }
+  }
+
+  /** Index files left by an earlier instance, oldest first so they are evicted first. */
+  private void adoptExistingFiles() throws IOException {
+    List<Path> existing = new ArrayList<>();
+    try (Stream<Path> listing = Files.list(directory)) {
+      listing.forEach(existing::add);
+    }
+    existing.sort(Comparator.comparingLong(path -> path.toFile().lastModified()));
+    for (Path path : existing) {
+      String fileName = path.getFileName().toString();
+      if (fileName.endsWith(".tmp")) {
+        Files.deleteIfExists(path);
+      } else {
+        record(fileName, Files.size(path));
+      }
+    }
+  }
+
+  private static String fileName(String sourceHash, int width, String format) {
+    return sourceHash + "-" + width + (format.equals("png") ? ".png" : ".jpg");
+  }
+
+  private static String formatOf(String name) {
+    return name.toLowerCase().endsWith(".png") ? "png" : "jpeg";
+  }
+
+  private static String contentType(String format) {
+    return "image/" + format;
+  }
+
+  private static String hash(byte[] bytes) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 12));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is required of every Java platform", e);
+    }
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[64 * 1024];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      bytes.write(buffer, 0, read);
+    }
+    return bytes.toByteArray();
+  }
+}
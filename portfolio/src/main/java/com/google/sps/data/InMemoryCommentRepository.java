@@ -0,0 +1,103 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/** Comment storage held in concurrent maps, for local load tests and as a baseline for the other backends. */
+public class InMemoryCommentRepository implements CommentRepository {
+  private final ConcurrentSkipListMap<CommentPosition, Comment> byPosition = new ConcurrentSkipListMap<>();
+  private final Map<Long, CommentPosition> positions = new ConcurrentHashMap<>();
+  private final AtomicLong lastId = new AtomicLong();
+
+  @Override
+  public Page list(@Nullable String cursor, int limit, Set<String> fields) {
+    CommentPosition start = CommentPosition.fromCursor(cursor);
+    NavigableMap<CommentPosition, Comment> remaining = start == null ? byPosition : byPosition.tailMap(start, false);
+    List<Comment> comments = new ArrayList<>();
+    CommentPosition last = start;
+    for (Map.Entry<CommentPosition, Comment> entry : remaining.entrySet()) {
+      if (comments.size() == limit) {
+        break;
+      }
+      comments.add(entry.getValue().withOnly(fields));
+      last = entry.getKey();
+    }
+    return new Page(comments, last == null ? null : last.toCursor());
+  }
+
+  @Override
+  public int count() {
+    return positions.size();
+  }
+
+  @Override
+  public Comment add(String location, String link, @Nullable String description, String userEmail, String displayedName,
+      long timestamp) {
+    long id = lastId.incrementAndGet();
+    Comment comment = new Comment(location, link, description, String.valueOf(id), userEmail, displayedName, timestamp);
+    CommentPosition position = new CommentPosition(timestamp, id);
+    byPosition.put(position, comment);
+    positions.put(id, position);
+    return comment;
+  }
+
+  @Override
+  public void delete(long id) {
+    CommentPosition position = positions.remove(id);
+    if (position != null) {
+      byPosition.remove(position);
+    }
+  }
+
+  @Override
+  public void updateSentiments(Map<Long, Float> scores) {
+    for (Map.Entry<Long, Float> score : scores.entrySet()) {
+      CommentPosition position = positions.get(score.getKey());
+      if (position != null) {
+        byPosition.computeIfPresent(position, (key, comment) -> comment.withSentiment(score.getValue()));
+      }
+    }
+  }
+
+  @Override
+  public List<Comment> get(List<Long> ids) {
+    List<Comment> comments = new ArrayList<>();
+    for (long id : ids) {
+      CommentPosition position = positions.get(id);
+      Comment comment = position == null ? null : byPosition.get(position);
+      if (comment != null) {
+        comments.add(comment);
+      }
+    }
+    return comments;
+  }
+
+  @Override
+  public void forEachOldestFirst(Consumer<Comment> visitor) {
+    for (Comment comment : byPosition.descendingMap().values()) {
+      visitor.accept(comment);
+    }
+  }
+}
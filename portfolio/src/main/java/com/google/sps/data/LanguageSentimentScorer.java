@@ -0,0 +1,46 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import java.io.IOException;
+
+/**
+ * Scores sentiment with the Cloud Natural Language API through one client shared by every call,
+ * instead of creating and closing a client per request.
+ */
+public class LanguageSentimentScorer implements SentimentScorer {
+  private volatile LanguageServiceClient client;
+
+  @Override
+  public float score(String text) throws IOException {
+    Document doc = Document.newBuilder().setContent(text).setType(Document.Type.PLAIN_TEXT).build();
+    return client().analyzeSentiment(doc).getDocumentSentiment().getScore();
+  }
+
+  private LanguageServiceClient client() throws IOException {
+    LanguageServiceClient existing = client;
+    if (existing != null) {
+      return existing;
+    }
+    synchronized (this) {
+      if (client == null) {
+        client = LanguageServiceClient.create();
+      }
+      return client;
+    }
+  }
+}
@@ -0,0 +1,165 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Comment count and latest activity per location, kept up to date as comments are added and
+ * deleted so they can be served without scanning comments.
+ *
+ * Locations are grouped ignoring case and surrounding whitespace, and are reported with the
+ * spelling of their most recent comment.
+ *
+ * A rebuild fills a separate instance from storage while this one keeps serving. Updates made
+ * meanwhile are applied to both, by comment id, so the rebuilt tallies include them whether the
+ * scan saw the comment or not.
+ */
+public class LocationRollups {
+  private static final LocationRollups shared = new LocationRollups();
+
+  /** Rollup per normalized location. Guarded by this. */
+  private Map<String, Tally> tallies = new HashMap<>();
+
+  /** Instance being rebuilt from storage, which receives every update as well. Guarded by this. */
+  private LocationRollups rebuilding;
+
+  /** For an instance being rebuilt, ids deleted during the scan, which it must not count again. Guarded by this. */
+  private Set<Long> removedIds;
+
+  /** Get the rollups shared by the servlets of this instance. */
+  public static LocationRollups get() {
+    return shared;
+  }
+
+  /** Summary of the comments about one location. */
+  public static class Rollup {
+    private final String location;
+    private final int count;
+    private final long latestTimestamp;
+
+    Rollup(String location, int count, long latestTimestamp) {
+      this.location = location;
+      this.count = count;
+      this.latestTimestamp = latestTimestamp;
+    }
+
+    public String getLocation() {
+      return this.location;
+    }
+
+    public int getCount() {
+      return this.count;
+    }
+
+    public long getLatestTimestamp() {
+      return this.latestTimestamp;
+    }
+  }
+
+  /**
+   * The comments about one location with the spelling each used, newest first, so the latest
+   * activity and spelling are still known after deletes.
+   */
+  private static class Tally {
+    private final TreeMap<CommentPosition, String> spellings = new TreeMap<>();
+  }
+
+  /** Count a new comment; counting the same comment again changes nothing. */
+  public synchronized void add(long id, String location, long timestamp) {
+    if (removedIds != null && removedIds.contains(id)) {
+      return;
+    }
+    String spelling = location == null ? "" : location.trim();
+    tallies.computeIfAbsent(normalize(location), key -> new Tally()).spellings
+        .put(new CommentPosition(timestamp, id), spelling);
+    if (rebuilding != null) {
+      rebuilding.add(id, location, timestamp);
+    }
+  }
+
+  /** Uncount a deleted comment. */
+  public synchronized void remove(long id, String location, long timestamp) {
+    if (removedIds != null) {
+      removedIds.add(id);
+    }
+    String key = normalize(location);
+    Tally tally = tallies.get(key);
+    if (tally != null) {
+      tally.spellings.remove(new CommentPosition(timestamp, id));
+      if (tally.spellings.isEmpty()) {
+        tallies.remove(key);
+      }
+    }
+    if (rebuilding != null) {
+      rebuilding.remove(id, location, timestamp);
+    }
+  }
+
+  /**
+   * Start a rebuild, e.g. a backfill from storage: returns an empty instance to add every stored
+   * comment to, which also receives the updates made to this one until finishRebuild.
+   */
+  public synchronized LocationRollups startRebuild() {
+    LocationRollups rebuilt = new LocationRollups();
+    rebuilt.removedIds = new HashSet<>();
+    this.rebuilding = rebuilt;
+    return rebuilt;
+  }
+
+  /** Take over the tallies of a rebuild, unless a later rebuild has been started since. */
+  public synchronized void finishRebuild(LocationRollups rebuilt) {
+    if (this.rebuilding != rebuilt) {
+      return;
+    }
+    synchronized (rebuilt) {
+      this.tallies = rebuilt.tallies;
+      rebuilt.tallies = new HashMap<>();
+      rebuilt.removedIds = null;
+    }
+    this.rebuilding = null;
+  }
+
+  /** Stop sending updates to a rebuild that failed. */
+  public synchronized void cancelRebuild(LocationRollups rebuilt) {
+    if (this.rebuilding == rebuilt) {
+      this.rebuilding = null;
+    }
+  }
+
+  /** Rollups for every location with comments, most recently active first. */
+  public synchronized List<Rollup> snapshot() {
+    List<Rollup> rollups = new ArrayList<>(tallies.size());
+    for (Tally tally : tallies.values()) {
+      Map.Entry<CommentPosition, String> latest = tally.spellings.firstEntry();
+      rollups.add(new Rollup(latest.getValue(), tally.spellings.size(), latest.getKey().getTimestamp()));
+    }
+    Collections.sort(rollups, Comparator.comparingLong(Rollup::getLatestTimestamp).reversed());
+    return rollups;
+  }
+
+  private static String normalize(String location) {
+    return location == null ? "" : location.trim().toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,589 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+/**
+ * Comment storage in append-only segment files on the local disk.
+ *
+ * Every add or delete appends a checksummed record to the active segment. An in-memory timestamp
+ * index maps each live comment to the record holding it, so listing a page reads only that page's
+ * records. Once the active segment reaches the segment size a new one is started, and when more
+ * than half of the closed segments is garbage their live records are copied into one compacted
+ * segment that replaces them.
+ *
+ * Segment files are named segment-NUMBER-GENERATION.log. A compacted segment keeps the number of the
+ * newest segment it replaces, a higher generation, and records the oldest number it covers in its
+ * header, so replaying segments in number order after a crash gives the same result as before it.
+ *
+ * Every segment starts with a LAST_ID record holding the highest id issued when it was created, so
+ * ids stay unique after compaction has dropped the records of the newest, deleted, comments.
+ */
+public class LogCommentRepository implements CommentRepository {
+  static final long DEFAULT_SEGMENT_BYTES = 4 << 20;
+
+  private static final int MAGIC = 0x53505343;
+  private static final int HEADER_BYTES = 8;
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+  /** A PUT followed by a sentiment score. */
+  private static final byte SCORED_PUT = 3;
+  /** The highest comment id issued so far; carries no comment. */
+  private static final byte LAST_ID = 4;
+  private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)-(\\d+)\\.log");
+
+  private final Path directory;
+  private final long segmentBytes;
+  private final boolean syncWrites;
+
+  /** Segments by number; the last one is active. Guarded by this. */
+  private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+  private final ConcurrentSkipListMap<CommentPosition, Location> index = new ConcurrentSkipListMap<>();
+  private final Map<Long, CommentPosition> positions = new ConcurrentHashMap<>();
+  /** Held for reading while reading records and for writing while compaction closes segments. */
+  private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+  private long lastId = 0;
+
+  /** Open or create a log in the given directory with the default segment size and no fsync per write. */
+  public LogCommentRepository(Path directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_BYTES, false);
+  }
+
+  /**
+   * @param directory where segment files are kept, created if missing
+   * @param segmentBytes size at which the active segment is closed and a new one started
+   * @param syncWrites whether to fsync after every write rather than leave it to the OS
+   */
+  public LogCommentRepository(Path directory, long segmentBytes, boolean syncWrites) throws IOException {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.syncWrites = syncWrites;
+    Files.createDirectories(directory);
+    open();
+  }
+
+  /** One segment file. */
+  private static class Segment {
+    final int number;
+    final int generation;
+    final Path path;
+    final FileChannel channel;
+    long size;
+    long liveBytes = 0;
+
+    Segment(int number, int generation, Path path, FileChannel channel, long size) {
+      this.number = number;
+      this.generation = generation;
+      this.path = path;
+      this.channel = channel;
+      this.size = size;
+    }
+  }
+
+  /** Where a live comment's record is stored. */
+  private static class Location {
+    final Segment segment;
+    final long offset;
+    final int length;
+
+    Location(Segment segment, long offset, int length) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  @Override
+  public Page list(@Nullable String cursor, int limit, Set<String> fields) throws IOException {
+    CommentPosition start = CommentPosition.fromCursor(cursor);
+    NavigableMap<CommentPosition, Location> remaining = start == null ? index : index.tailMap(start, false);
+    List<Comment> comments = new ArrayList<>();
+    CommentPosition last = start;
+    segmentLock.readLock().lock();
+    try {
+      for (Map.Entry<CommentPosition, Location> entry : remaining.entrySet()) {
+        if (comments.size() == limit) {
+          break;
+        }
+        comments.add(read(entry.getValue()).withOnly(fields));
+        last = entry.getKey();
+      }
+    } finally {
+      segmentLock.readLock().unlock();
+    }
+    return new Page(comments, last == null ? null : last.toCursor());
+  }
+
+  @Override
+  public int count() {
+    return positions.size();
+  }
+
+  @Override
+  public synchronized Comment add(String location, String link, @Nullable String description, String userEmail,
+      String displayedName, long timestamp) throws IOException {
+    long id = ++lastId;
+    Comment comment = new Comment(location, link, description, String.valueOf(id), userEmail, displayedName, timestamp);
+    store(comment);
+    rollIfFull();
+    return comment;
+  }
+
+  @Override
+  public synchronized void updateSentiments(Map<Long, Float> scores) throws IOException {
+    for (Map.Entry<Long, Float> score : scores.entrySet()) {
+      CommentPosition position = positions.get(score.getKey());
+      Location location = position == null ? null : index.get(position);
+      if (location != null) {
+        Comment comment = read(location);
+        forget(score.getKey());
+        store(comment.withSentiment(score.getValue()));
+      }
+    }
+    rollIfFull();
+  }
+
+  @Override
+  public synchronized void delete(long id) throws IOException {
+    if (!positions.containsKey(id)) {
+      return;
+    }
+    append(encodeDelete(id));
+    forget(id);
+    rollIfFull();
+  }
+
+  @Override
+  public List<Comment> get(List<Long> ids) throws IOException {
+    List<Comment> comments = new ArrayList<>();
+    segmentLock.readLock().lock();
+    try {
+      for (long id : ids) {
+        CommentPosition position = positions.get(id);
+        Location location = position == null ? null : index.get(position);
+        if (location != null) {
+          comments.add(read(location));
+        }
+      }
+    } finally {
+      segmentLock.readLock().unlock();
+    }
+    return comments;
+  }
+
+  @Override
+  public void forEachOldestFirst(Consumer<Comment> visitor) throws IOException {
+    segmentLock.readLock().lock();
+    try {
+      for (Location location : index.descendingMap().values()) {
+        visitor.accept(read(location));
+      }
+    } finally {
+      segmentLock.readLock().unlock();
+    }
+  }
+
+  /** Number of segment files, including the active one. */
+  synchronized int segmentCount() {
+    return segments.size();
+  }
+
+  /** Close every segment file. */
+  public synchronized void close() throws IOException {
+    for (Segment segment : segments.values()) {
+      segment.channel.close();
+    }
+  }
+
+  /** Append a PUT record for a comment and point the index at it. */
+  private void store(Comment comment) throws IOException {
+    long id = Long.parseLong(comment.getId());
+    byte[] record = encodePut(comment);
+    Location stored = append(record);
+    stored.segment.liveBytes += record.length;
+    CommentPosition position = new CommentPosition(comment.getTimestamp(), id);
+    index.put(position, stored);
+    positions.put(id, position);
+  }
+
+  private void forget(long id) {
+    CommentPosition position = positions.remove(id);
+    Location location = position == null ? null : index.remove(position);
+    if (location != null) {
+      location.segment.liveBytes -= location.length;
+    }
+  }
+
+  private Location append(byte[] record) throws IOException {
+    Segment active = segments.lastEntry().getValue();
+    long offset = active.size;
+    ByteBuffer buffer = ByteBuffer.wrap(record);
+    while (buffer.hasRemaining()) {
+      active.channel.write(buffer, offset + buffer.position());
+    }
+    active.size += record.length;
+    if (syncWrites) {
+      active.channel.force(false);
+    }
+    return new Location(active, offset, record.length);
+  }
+
+  private void rollIfFull() throws IOException {
+    Segment active = segments.lastEntry().getValue();
+    if (active.size < segmentBytes) {
+      return;
+    }
+    active.channel.force(false);
+    createSegment(active.number + 1, 0, active.number + 1);
+
+    long closedSize = 0;
+    long closedLive = 0;
+    for (Segment segment : segments.headMap(active.number, true).values()) {
+      closedSize += segment.size - HEADER_BYTES;
+      closedLive += segment.liveBytes;
+    }
+    if (closedLive * 2 < closedSize) {
+      compact(active.number);
+    }
+  }
+
+  /** Copy the live records of every segment up to and including lastNumber into one segment replacing them. */
+  private void compact(int lastNumber) throws IOException {
+    NavigableMap<Integer, Segment> closed = segments.headMap(lastNumber, true);
+    int firstNumber = closed.firstKey();
+    int generation = closed.get(lastNumber).generation + 1;
+    Path target = directory.resolve(segmentName(lastNumber, generation));
+    Path temp = directory.resolve(segmentName(lastNumber, generation) + ".tmp");
+
+    Map<CommentPosition, Location> moved = new TreeMap<>();
+    try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE)) {
+      out.write(header(firstNumber));
+      ByteBuffer lastIdRecord = ByteBuffer.wrap(encodeLastId(lastId));
+      while (lastIdRecord.hasRemaining()) {
+        out.write(lastIdRecord);
+      }
+      long offset = HEADER_BYTES + lastIdRecord.capacity();
+      for (Map.Entry<CommentPosition, Location> entry : index.entrySet()) {
+        Location location = entry.getValue();
+        if (location.segment.number > lastNumber) {
+          continue;
+        }
+        ByteBuffer record = readBytes(location);
+        while (record.hasRemaining()) {
+          out.write(record);
+        }
+        moved.put(entry.getKey(), new Location(null, offset, location.length));
+        offset += location.length;
+      }
+      out.force(true);
+    }
+    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+
+    FileChannel channel = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    Segment compacted = new Segment(lastNumber, generation, target, channel, channel.size());
+    segmentLock.writeLock().lock();
+    try {
+      for (Map.Entry<CommentPosition, Location> entry : moved.entrySet()) {
+        Location location = entry.getValue();
+        index.put(entry.getKey(), new Location(compacted, location.offset, location.length));
+        compacted.liveBytes += location.length;
+      }
+      for (Segment segment : new ArrayList<>(closed.values())) {
+        segment.channel.close();
+        Files.delete(segment.path);
+      }
+      closed.clear();
+      segments.put(lastNumber, compacted);
+    } finally {
+      segmentLock.writeLock().unlock();
+    }
+  }
+
+  /** Load existing segments, dropping any replaced by a compacted segment, and replay them to rebuild the index. */
+  private synchronized void open() throws IOException {
+    TreeMap<Integer, Path> newest = new TreeMap<>();
+    TreeMap<Integer, Integer> generations = new TreeMap<>();
+    List<Path> stale = new ArrayList<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path path : (Iterable<Path>) files::iterator) {
+        String name = path.getFileName().toString();
+        if (name.endsWith(".tmp")) {
+          stale.add(path);
+          continue;
+        }
+        Matcher matcher = SEGMENT_NAME.matcher(name);
+        if (!matcher.matches()) {
+          continue;
+        }
+        int number = Integer.parseInt(matcher.group(1));
+        int generation = Integer.parseInt(matcher.group(2));
+        Integer known = generations.get(number);
+        if (known == null || generation > known) {
+          if (known != null) {
+            stale.add(newest.get(number));
+          }
+          newest.put(number, path);
+          generations.put(number, generation);
+        } else {
+          stale.add(path);
+        }
+      }
+    }
+
+    // a compacted segment supersedes every older segment it covers
+    List<Integer> numbers = new ArrayList<>(newest.descendingKeySet());
+    for (int number : numbers) {
+      Path path = newest.get(number);
+      if (path == null) {
+        continue;
+      }
+      int from = readHeader(path);
+      for (int covered : new ArrayList<>(newest.subMap(from, true, number, false).keySet())) {
+        stale.add(newest.remove(covered));
+      }
+    }
+    for (Path path : stale) {
+      Files.deleteIfExists(path);
+    }
+
+    for (Map.Entry<Integer, Path> entry : newest.entrySet()) {
+      boolean isLast = entry.getKey().equals(newest.lastKey());
+      replay(entry.getKey(), generations.get(entry.getKey()), entry.getValue(), isLast);
+    }
+    if (segments.isEmpty()) {
+      createSegment(1, 0, 1);
+    }
+  }
+
+  private void replay(int number, int generation, Path path, boolean isLast) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    Segment segment = new Segment(number, generation, path, channel, channel.size());
+    segments.put(number, segment);
+
+    long offset = HEADER_BYTES;
+    ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+    while (offset < segment.size) {
+      lengthBuffer.clear();
+      int payloadLength = -1;
+      if (readFully(channel, lengthBuffer, offset)) {
+        payloadLength = lengthBuffer.getInt(0);
+      }
+      int recordLength = payloadLength + 8;
+      if (payloadLength < 0 || offset + recordLength > segment.size) {
+        truncateOrFail(segment, offset, isLast);
+        return;
+      }
+      ByteBuffer record = ByteBuffer.allocate(recordLength);
+      readFully(channel, record, offset);
+      if (!checksumMatches(record.array())) {
+        truncateOrFail(segment, offset, isLast);
+        return;
+      }
+
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.array(), 4, payloadLength));
+      byte op = in.readByte();
+      long id = in.readLong();
+      lastId = Math.max(lastId, id);
+      if (op == LAST_ID) {
+        offset += recordLength;
+        continue;
+      }
+      if (op == PUT || op == SCORED_PUT) {
+        long timestamp = in.readLong();
+        forget(id);
+        CommentPosition position = new CommentPosition(timestamp, id);
+        index.put(position, new Location(segment, offset, recordLength));
+        positions.put(id, position);
+        segment.liveBytes += recordLength;
+      } else {
+        forget(id);
+      }
+      offset += recordLength;
+    }
+  }
+
+  /** A torn record at the end of the active segment is a crashed write and is dropped; anywhere else it is corruption. */
+  private void truncateOrFail(Segment segment, long offset, boolean isLast) throws IOException {
+    if (!isLast) {
+      throw new IOException("Corrupt record in " + segment.path + " at offset " + offset);
+    }
+    segment.channel.truncate(offset);
+    segment.size = offset;
+  }
+
+  private void createSegment(int number, int generation, int from) throws IOException {
+    Path path = directory.resolve(segmentName(number, generation));
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    channel.write(header(from), 0);
+    segments.put(number, new Segment(number, generation, path, channel, HEADER_BYTES));
+    append(encodeLastId(lastId));
+  }
+
+  private static String segmentName(int number, int generation) {
+    return String.format("segment-%08d-%d.log", number, generation);
+  }
+
+  private static ByteBuffer header(int from) {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    header.putInt(MAGIC).putInt(from);
+    header.flip();
+    return header;
+  }
+
+  private static int readHeader(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      if (!readFully(channel, header, 0) || header.getInt(0) != MAGIC) {
+        throw new IOException("Not a comment log segment: " + path);
+      }
+      return header.getInt(4);
+    }
+  }
+
+  private Comment read(Location location) throws IOException {
+    ByteBuffer record = readBytes(location);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.array(), 4, location.length - 8));
+    byte op = in.readByte();
+    long id = in.readLong();
+    long timestamp = in.readLong();
+    String commentLocation = readString(in);
+    String link = readString(in);
+    String description = readString(in);
+    String userEmail = readString(in);
+    String displayedName = readString(in);
+    Float sentiment = op == SCORED_PUT ? in.readFloat() : null;
+    return new Comment(commentLocation, link, description, String.valueOf(id), userEmail, displayedName, timestamp)
+        .withSentiment(sentiment);
+  }
+
+  private static ByteBuffer readBytes(Location location) throws IOException {
+    ByteBuffer record = ByteBuffer.allocate(location.length);
+    if (!readFully(location.segment.channel, record, location.offset)) {
+      throw new IOException("Short read from " + location.segment.path);
+    }
+    record.flip();
+    return record;
+  }
+
+  private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Record layout: payload length, payload, CRC32 of the payload. */
+  private static byte[] frame(ByteArrayOutputStream payload) {
+    byte[] body = payload.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    ByteBuffer record = ByteBuffer.allocate(body.length + 8);
+    record.putInt(body.length).put(body).putInt((int) crc.getValue());
+    return record.array();
+  }
+
+  private static boolean checksumMatches(byte[] record) {
+    CRC32 crc = new CRC32();
+    crc.update(record, 4, record.length - 8);
+    return ByteBuffer.wrap(record).getInt(record.length - 4) == (int) crc.getValue();
+  }
+
+  private static byte[] encodePut(Comment comment) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(payload);
+    out.writeByte(comment.getSentiment() == null ? PUT : SCORED_PUT);
+    out.writeLong(Long.parseLong(comment.getId()));
+    out.writeLong(comment.getTimestamp());
+    writeString(out, comment.getLocation());
+    writeString(out, comment.getLink());
+    writeString(out, comment.getDescription());
+    writeString(out, comment.getUserEmail());
+    writeString(out, comment.getDisplayedName());
+    if (comment.getSentiment() != null) {
+      out.writeFloat(comment.getSentiment());
+    }
+    return frame(payload);
+  }
+
+  private static byte[] encodeDelete(long id) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(payload);
+    out.writeByte(DELETE);
+    out.writeLong(id);
+    return frame(payload);
+  }
+
+  private static byte[] encodeLastId(long id) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(payload);
+    out.writeByte(LAST_ID);
+    out.writeLong(id);
+    return frame(payload);
+  }
+
+  private static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  @Nullable
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
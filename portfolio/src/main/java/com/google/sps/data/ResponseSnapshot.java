@@ -0,0 +1,118 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * An already serialized response body, with a gzip variant compressed once up front, tagged with
+ * the version of the data it was built from. Serving it copies bytes to the output stream without
+ * any serialization or compression work; callers rebuild it only when their data version changes.
+ */
+public final class ResponseSnapshot {
+  private final long version;
+  private final String contentType;
+  private final byte[] identity;
+  private final byte[] gzip;
+
+  private ResponseSnapshot(long version, String contentType, byte[] identity, byte[] gzip) {
+    this.version = version;
+    this.contentType = contentType;
+    this.identity = identity;
+    this.gzip = gzip;
+  }
+
+  /** Encode a body as UTF-8 and compress it. */
+  public static ResponseSnapshot of(long version, String contentType, String body) {
+    return of(version, contentType, body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Compress an already encoded body. */
+  public static ResponseSnapshot of(long version, String contentType, byte[] identity) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(identity.length / 4 + 64);
+    try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+      out.write(identity);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not compress snapshot", e);
+    }
+    return new ResponseSnapshot(version, contentType, identity, compressed.toByteArray());
+  }
+
+  /** Version of the data this snapshot was built from. */
+  public long getVersion() {
+    return this.version;
+  }
+
+  /** Write the gzip variant if the client accepts it, otherwise the plain bytes. */
+  public void writeTo(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    boolean useGzip = acceptsGzip(request.getHeader("Accept-Encoding"));
+    byte[] body = useGzip ? gzip : identity;
+    response.setContentType(contentType);
+    response.setHeader("Vary", "Accept-Encoding");
+    if (useGzip) {
+      response.setHeader("Content-Encoding", "gzip");
+    }
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  /**
+   * Check an Accept-Encoding header for gzip, honouring an explicit q=0. Every coding is read, and
+   * a gzip entry decides over a * entry wherever either appears.
+   */
+  public static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    double gzipQuality = -1;
+    double anyQuality = -1;
+    for (String coding : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+      String[] parts = coding.trim().split(";");
+      String name = parts[0].trim();
+      if (!name.equals("gzip") && !name.equals("*")) {
+        continue;
+      }
+      double quality = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim().replace(" ", "");
+        if (param.startsWith("q=")) {
+          quality = parseQuality(param.substring(2));
+        }
+      }
+      if (name.equals("gzip")) {
+        gzipQuality = quality;
+      } else {
+        anyQuality = quality;
+      }
+    }
+    return gzipQuality >= 0 ? gzipQuality > 0 : anyQuality > 0;
+  }
+
+  /** Parse a q value; a malformed one is treated as absent, i.e. as the default of 1. */
+  private static double parseQuality(String value) {
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      return 1;
+    }
+  }
+}
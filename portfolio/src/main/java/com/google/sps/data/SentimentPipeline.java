@@ -0,0 +1,192 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background pipeline that scores the sentiment of new comments off the request path, on threads
+ * of its own. Those threads outlive the request that started them, which App Engine's automatic
+ * scaling does not allow, so there comments are scored by SentimentTasks instead.
+ *
+ * Submitted comments wait in a bounded queue. A worker thread takes up to batchSize of them at a
+ * time, scores them with at most maxConcurrentCalls calls in flight, and writes the batch's scores
+ * back to the repository in one update.
+ */
+public class SentimentPipeline implements SentimentQueue {
+  static final int BATCH_SIZE = 25;
+  static final long LINGER_MILLIS = 200;
+  static final int MAX_CONCURRENT_CALLS = 4;
+  static final int QUEUE_CAPACITY = 10_000;
+
+  private static final Logger logger = Logger.getLogger(SentimentPipeline.class.getName());
+
+  private final CommentRepository repository;
+  private final SentimentScorer scorer;
+  private final int batchSize;
+  private final long lingerMillis;
+  private final BlockingQueue<Pending> queue;
+  private final ExecutorService calls;
+  private final Thread worker;
+  private final AtomicLong processed = new AtomicLong();
+  private volatile boolean running = true;
+
+  /** A comment waiting to be scored. */
+  private static class Pending {
+    final long commentId;
+    final String text;
+
+    Pending(long commentId, String text) {
+      this.commentId = commentId;
+      this.text = text;
+    }
+  }
+
+  public SentimentPipeline(CommentRepository repository, SentimentScorer scorer, int batchSize, long lingerMillis,
+      int maxConcurrentCalls, int queueCapacity) {
+    this(repository, scorer, batchSize, lingerMillis, maxConcurrentCalls, queueCapacity,
+        BackgroundThreads.factory());
+  }
+
+  /**
+   * @param threadFactory creates the worker and call threads, e.g. to give them an App Engine API environment
+   */
+  public SentimentPipeline(CommentRepository repository, SentimentScorer scorer, int batchSize, long lingerMillis,
+      int maxConcurrentCalls, int queueCapacity, ThreadFactory threadFactory) {
+    this.repository = repository;
+    this.scorer = scorer;
+    this.batchSize = batchSize;
+    this.lingerMillis = lingerMillis;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.calls = Executors.newFixedThreadPool(maxConcurrentCalls,
+        BackgroundThreads.named(threadFactory, "sentiment-call"));
+    this.worker = BackgroundThreads.named(threadFactory, "sentiment-pipeline").newThread(this::run);
+    this.worker.start();
+  }
+
+  /**
+   * Queue a comment for scoring without blocking.
+   *
+   * @return false if the text is empty or the queue is full, in which case the comment stays unscored
+   */
+  @Override
+  public boolean submit(long commentId, String text) {
+    if (text == null || text.trim().isEmpty()) {
+      return false;
+    }
+    return queue.offer(new Pending(commentId, text));
+  }
+
+  /** Number of comments taken off the queue so far, whether or not scoring succeeded. */
+  public long processedCount() {
+    return processed.get();
+  }
+
+  /** Stop the worker; comments still queued are not scored. */
+  public void shutdown() throws InterruptedException {
+    running = false;
+    worker.interrupt();
+    worker.join();
+    calls.shutdownNow();
+  }
+
+  private void run() {
+    while (running) {
+      List<Pending> batch;
+      try {
+        batch = nextBatch();
+      } catch (InterruptedException e) {
+        return;
+      }
+      try {
+        scoreAndStore(batch);
+      } catch (InterruptedException e) {
+        return;
+      } catch (IOException | RuntimeException e) {
+        logger.log(Level.WARNING, "Could not store sentiment scores", e);
+      } finally {
+        processed.addAndGet(batch.size());
+      }
+    }
+  }
+
+  /** Wait for a comment, then give others up to lingerMillis to arrive so they share the batch. */
+  private List<Pending> nextBatch() throws InterruptedException {
+    List<Pending> batch = new ArrayList<>(batchSize);
+    Pending first = queue.take();
+    batch.add(first);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+    while (batch.size() < batchSize) {
+      queue.drainTo(batch, batchSize - batch.size());
+      long remaining = deadline - System.nanoTime();
+      if (batch.size() >= batchSize || remaining <= 0) {
+        break;
+      }
+      Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+      if (next == null) {
+        break;
+      }
+      batch.add(next);
+    }
+    return batch;
+  }
+
+  private void scoreAndStore(List<Pending> batch) throws IOException, InterruptedException {
+    Map<Long, String> texts = new LinkedHashMap<>();
+    for (Pending pending : batch) {
+      texts.put(pending.commentId, pending.text);
+    }
+    scoreAndStore(texts, scorer, calls, repository);
+  }
+
+  /**
+   * Score a batch of comments with the calls running on the given executor, then write back the
+   * scores that succeeded in one update. A comment whose call fails stays unscored.
+   */
+  static void scoreAndStore(Map<Long, String> texts, SentimentScorer scorer, ExecutorService calls,
+      CommentRepository repository) throws IOException, InterruptedException {
+    Map<Long, Future<Float>> futures = new LinkedHashMap<>();
+    for (Map.Entry<Long, String> text : texts.entrySet()) {
+      futures.put(text.getKey(), calls.submit(() -> scorer.score(text.getValue())));
+    }
+    Map<Long, Float> scores = new HashMap<>();
+    for (Map.Entry<Long, Future<Float>> future : futures.entrySet()) {
+      try {
+        scores.put(future.getKey(), future.getValue().get());
+      } catch (ExecutionException e) {
+        logger.log(Level.WARNING, "Could not score comment " + future.getKey(), e.getCause());
+      }
+    }
+    if (!scores.isEmpty()) {
+      repository.updateSentiments(scores);
+    }
+  }
+}
@@ -0,0 +1,26 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/** Somewhere new comments are handed off to have their sentiment scored outside the request. */
+public interface SentimentQueue {
+
+  /**
+   * Queue a comment for scoring without waiting for the score.
+   *
+   * @return false if the text is empty or the comment could not be queued, in which case it stays unscored
+   */
+  boolean submit(long commentId, String text);
+}
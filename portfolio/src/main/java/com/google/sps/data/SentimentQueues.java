@@ -0,0 +1,53 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.apphosting.api.ApiProxy;
+
+/**
+ * Chooses how the servlets have comments scored.
+ *
+ * On App Engine, where automatic scaling does not allow threads that outlive a request, comments
+ * are scored through task queues by SentimentTasks. Elsewhere, e.g. in tests, a SentimentPipeline
+ * scores them on its own threads.
+ */
+public final class SentimentQueues {
+  private static volatile SentimentQueue shared;
+
+  private SentimentQueues() {}
+
+  /** Get the shared queue, creating it on first use. */
+  public static SentimentQueue get() {
+    SentimentQueue queue = shared;
+    if (queue != null) {
+      return queue;
+    }
+    synchronized (SentimentQueues.class) {
+      if (shared == null) {
+        shared = ApiProxy.getCurrentEnvironment() != null
+            ? new SentimentTasks(CommentRepositories.get(), new LanguageSentimentScorer())
+            : new SentimentPipeline(CommentRepositories.get(), new LanguageSentimentScorer(),
+                SentimentPipeline.BATCH_SIZE, SentimentPipeline.LINGER_MILLIS, SentimentPipeline.MAX_CONCURRENT_CALLS,
+                SentimentPipeline.QUEUE_CAPACITY);
+      }
+      return shared;
+    }
+  }
+
+  /** Replace the shared queue, e.g. to score with a stub in a load test. */
+  public static void set(SentimentQueue queue) {
+    shared = queue;
+  }
+}
@@ -14,13 +14,11 @@
 
 package com.google.sps.data;
 
-/** Represents a UFO sighting at a specific lat lng point. */
-public class UfoSighting {
-  private double lat;
-  private double lng;
+import java.io.IOException;
 
-  public UfoSighting(double lat, double lng) {
-    this.lat = lat;
-    this.lng = lng;
-  }
+/** Scores the sentiment of a piece of text. Implementations must be safe to call from several threads. */
+public interface SentimentScorer {
+
+  /** Return a score from -1 (negative) to 1 (positive). */
+  float score(String text) throws IOException;
 }
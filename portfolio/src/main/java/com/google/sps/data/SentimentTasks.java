@@ -0,0 +1,107 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores comment sentiment through App Engine task queues, so no thread has to outlive a request.
+ *
+ * Submitted comments are added to the sentiment-pending pull queue. Each submission also schedules
+ * a push task to /tasks/score-sentiment, named after the current window of LINGER_MILLIS; the
+ * comments of one window share that task, and a second task with the same name is refused. The
+ * task runs one window after its own, leases up to BATCH_SIZE pending comments at a time, scores
+ * them with at most MAX_CONCURRENT_CALLS calls in flight, and writes each batch's scores back in
+ * one update, until no comments are left. Both queues are declared in queue.xml.
+ */
+public class SentimentTasks implements SentimentQueue {
+  static final String PENDING_QUEUE = "sentiment-pending";
+  static final String BATCH_QUEUE = "sentiment";
+  public static final String BATCH_URL = "/tasks/score-sentiment";
+  static final int LEASE_SECONDS = 60;
+
+  private final CommentRepository repository;
+  private final SentimentScorer scorer;
+  private final Queue pending = QueueFactory.getQueue(PENDING_QUEUE);
+  private final Queue batches = QueueFactory.getQueue(BATCH_QUEUE);
+
+  public SentimentTasks(CommentRepository repository, SentimentScorer scorer) {
+    this.repository = repository;
+    this.scorer = scorer;
+  }
+
+  @Override
+  public boolean submit(long commentId, String text) {
+    if (text == null || text.trim().isEmpty()) {
+      return false;
+    }
+    pending.add(TaskOptions.Builder.withMethod(TaskOptions.Method.PULL)
+        .payload((commentId + "\n" + text).getBytes(StandardCharsets.UTF_8)));
+    long window = System.currentTimeMillis() / SentimentPipeline.LINGER_MILLIS;
+    try {
+      batches.add(TaskOptions.Builder.withUrl(BATCH_URL)
+          .taskName("score-" + window)
+          .etaMillis((window + 2) * SentimentPipeline.LINGER_MILLIS));
+    } catch (TaskAlreadyExistsException e) {
+      // an earlier comment in this window already scheduled the task
+    }
+    return true;
+  }
+
+  /**
+   * Score pending comments a batch at a time until none are left. A batch is only removed from the
+   * pending queue once its scores are stored; if storing fails, its lease runs out and a later task
+   * scores it again.
+   *
+   * @param threadFactory makes the call threads; on App Engine, ThreadManager.currentRequestThreadFactory()
+   * @return number of comments taken off the pending queue
+   */
+  public int scorePending(ThreadFactory threadFactory) throws IOException, InterruptedException {
+    ExecutorService calls = Executors.newFixedThreadPool(SentimentPipeline.MAX_CONCURRENT_CALLS, threadFactory);
+    int processed = 0;
+    try {
+      while (true) {
+        List<TaskHandle> leased = pending.leaseTasks(LEASE_SECONDS, TimeUnit.SECONDS, SentimentPipeline.BATCH_SIZE);
+        if (leased.isEmpty()) {
+          return processed;
+        }
+        Map<Long, String> texts = new LinkedHashMap<>();
+        for (TaskHandle task : leased) {
+          String payload = new String(task.getPayload(), StandardCharsets.UTF_8);
+          int newline = payload.indexOf('\n');
+          texts.put(Long.parseLong(payload.substring(0, newline)), payload.substring(newline + 1));
+        }
+        SentimentPipeline.scoreAndStore(texts, scorer, calls, repository);
+        pending.deleteTask(leased);
+        processed += leased.size();
+      }
+    } finally {
+      calls.shutdownNow();
+    }
+  }
+}
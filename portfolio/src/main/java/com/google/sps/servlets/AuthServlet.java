@@ -19,6 +19,7 @@ import com.google.appengine.api.datastore.*;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.gson.Gson;
+import com.google.sps.data.AuthStatusCache;
 import java.io.IOException;
 import java.io.PrintWriter;
 import javax.servlet.annotation.WebServlet;
@@ -29,7 +30,8 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/auth")
 public class AuthServlet extends HttpServlet {
 
-  private class AuthStatus {
+  /** Whether the user is logged in, as whom, and the URL to log in or out. */
+  static class AuthStatus {
     boolean isLoggedIn;
     String url;
     String userEmail;
@@ -41,25 +43,43 @@ public class AuthServlet extends HttpServlet {
     }
   }
 
+  /** Shared so the type adapters Gson builds by reflection are made once, not per request. */
+  private static final Gson gson = new Gson();
+
   private final UserService userService = UserServiceFactory.getUserService();
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    AuthStatus status = lookUp(userService, request, response);
+
+    response.setContentType("application/json;");
+    String json = gson.toJson(status);
+    response.getWriter().println(json);
+  }
+
+  /** Get the user's status, from the signed cookie if it is still valid, refreshing the cookie otherwise. */
+  static AuthStatus lookUp(UserService userService, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     AuthStatus status;
-    if (userService.isUserLoggedIn()) {
+    String urlToRedirectToAfterUserLogsOut = "/";
+    String urlToRedirectToAfterUserLogsIn = "/";
+    AuthStatusCache.Status cached = AuthStatusCache.read(request);
+    if (cached != null) {
+      // status verified from the signed cookie, and the URLs are cached, so UserService is not called
+      status = cached.isLoggedIn()
+          ? new AuthStatus(true, AuthStatusCache.logoutUrl(userService, request, urlToRedirectToAfterUserLogsOut), cached.getUserEmail())
+          : new AuthStatus(false, AuthStatusCache.loginUrl(userService, request, urlToRedirectToAfterUserLogsIn), null);
+    } else if (userService.isUserLoggedIn()) {
+      // getCurrentUser only reads the request environment; the logout URL is cached after its first use
       String userEmail = userService.getCurrentUser().getEmail();
-      String urlToRedirectToAfterUserLogsOut = "/";
-      String logoutUrl = userService.createLogoutURL(urlToRedirectToAfterUserLogsOut);
+      String logoutUrl = AuthStatusCache.logoutUrl(userService, request, urlToRedirectToAfterUserLogsOut);
       status = new AuthStatus(true, logoutUrl, userEmail);
+      AuthStatusCache.write(request, response, true, userEmail);
     } else {
-      String urlToRedirectToAfterUserLogsIn = "/";
-      String loginUrl = userService.createLoginURL(urlToRedirectToAfterUserLogsIn);
+      String loginUrl = AuthStatusCache.loginUrl(userService, request, urlToRedirectToAfterUserLogsIn);
       status = new AuthStatus(false, loginUrl, null);
+      AuthStatusCache.write(request, response, false, null);
     }
-
-    response.setContentType("application/json;");
-    Gson gson = new Gson();
-    String json = gson.toJson(status);
-    response.getWriter().println(json);
+    return status;
   }
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.CommentSearchIndex;
+import com.google.sps.data.LocationRollups;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/** Builds the in-memory indexes derived from comments in one pass over storage when the instance starts. */
+@WebListener
+public class CommentIndexesListener implements ServletContextListener {
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    CommentSearchIndex searchIndex = CommentSearchIndex.get();
+    LocationRollups rollups = LocationRollups.get().startRebuild();
+    searchIndex.clear();
+    try {
+      CommentRepositories.get().forEachOldestFirst(comment -> {
+        searchIndex.add(Long.parseLong(comment.getId()), comment.getLocation(), comment.getDescription());
+        addToRollups(rollups, comment);
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not build comment indexes", e);
+    }
+    LocationRollups.get().finishRebuild(rollups);
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {}
+
+  /**
+   * Recompute the location rollups from storage, e.g. to backfill after a migration. Comments added
+   * or deleted during the scan are applied to the rebuilt rollups too.
+   */
+  static void rebuildRollups(CommentRepository repository) throws IOException {
+    LocationRollups rollups = LocationRollups.get().startRebuild();
+    try {
+      repository.forEachOldestFirst(comment -> addToRollups(rollups, comment));
+    } catch (IOException | RuntimeException e) {
+      LocationRollups.get().cancelRebuild(rollups);
+      throw e;
+    }
+    LocationRollups.get().finishRebuild(rollups);
+  }
+
+  private static void addToRollups(LocationRollups rollups, Comment comment) {
+    if (comment.getTimestamp() != null) {
+      rollups.add(Long.parseLong(comment.getId()), comment.getLocation(), comment.getTimestamp());
+    }
+  }
+}
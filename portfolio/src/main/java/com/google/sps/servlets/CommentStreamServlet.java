@@ -0,0 +1,165 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.CommentBroadcaster;
+import com.google.sps.data.CommentBroadcaster.Event;
+import com.google.sps.data.CommentBroadcaster.Subscription;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that pushes newly posted comments to the page as Server-Sent Events.
+ *
+ * Connections are held with an AsyncContext rather than a request thread, and are closed after
+ * HOLD_MILLIS; EventSource reconnects with Last-Event-ID and receives anything it missed. The
+ * preamble carries the id the client is caught up to, so it sends Last-Event-ID even when no event
+ * arrived while it was connected.
+ *
+ * This only suits a single long-lived instance. The broadcaster is per instance, so a client only
+ * hears of comments posted to the instance holding its stream; an id from another instance makes
+ * it reload. On the standard environment responses are buffered until the request ends, so events
+ * arrive in one batch when the stream closes, and with threadsafe false every open stream occupies
+ * a whole instance for HOLD_MILLIS. Deployments with more than one instance should poll /data,
+ * whose ETag makes unchanged polls cheap, instead.
+ */
+@WebServlet(urlPatterns = "/data/stream", asyncSupported = true)
+public class CommentStreamServlet extends HttpServlet {
+
+  static final long HOLD_MILLIS = 30_000;
+  static final int RETRY_MILLIS = 3_000;
+
+  /** Writes queued events to clients so publishers never block on a slow connection. */
+  private static final ExecutorService writer = Executors.newFixedThreadPool(2, runnable -> {
+    Thread thread = new Thread(runnable, "comment-stream-writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Gson gson = new Gson();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setContentType("text/event-stream");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+
+    long lastEventId = parseEventId(request.getHeader("Last-Event-ID"));
+    AsyncContext context = request.startAsync();
+    context.setTimeout(HOLD_MILLIS);
+
+    Connection connection = new Connection(context);
+    synchronized (connection) {
+      connection.subscription = CommentBroadcaster.get().subscribe(
+          lastEventId, subscription -> writer.execute(connection::flush));
+      PrintWriter out = response.getWriter();
+      out.print("retry: " + RETRY_MILLIS + "\n");
+      if (connection.subscription.getResumeId() > 0) {
+        out.print("id: " + connection.subscription.getResumeId() + "\n");
+      }
+      out.print("\n");
+    }
+    context.addListener(connection);
+    connection.flush();
+  }
+
+  private static long parseEventId(String header) {
+    if (header == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(header.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /** State of one open event stream. */
+  private class Connection implements AsyncListener {
+    private final AsyncContext context;
+    private Subscription subscription;
+    private boolean closed = false;
+
+    Connection(AsyncContext context) {
+      this.context = context;
+    }
+
+    /** Write every queued event, or tell the client to reload if it fell behind. */
+    synchronized void flush() {
+      if (closed || subscription == null) {
+        return;
+      }
+      try {
+        PrintWriter out = context.getResponse().getWriter();
+        for (Event event : subscription.drain()) {
+          out.print("id: " + event.getId() + "\n");
+          out.print("event: comment\n");
+          out.print("data: " + gson.toJson(event.getComment()) + "\n\n");
+        }
+        if (subscription.isOverflowed()) {
+          out.print("event: reload\ndata: {}\n\n");
+          out.flush();
+          close();
+          return;
+        }
+        out.flush();
+        if (out.checkError()) {
+          close();
+        }
+      } catch (IOException | IllegalStateException e) {
+        close();
+      }
+    }
+
+    private synchronized void close() {
+      if (!closed) {
+        closed = true;
+        subscription.close();
+        context.complete();
+      }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      synchronized (this) {
+        closed = true;
+      }
+      subscription.close();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      close();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      close();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {}
+  }
+}
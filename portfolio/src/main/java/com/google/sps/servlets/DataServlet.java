@@ -14,24 +14,32 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.Cursor;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
-import com.google.appengine.api.datastore.QueryResultList;
+import javax.annotation.Nullable;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.gson.Gson;
+import com.google.sps.data.AsyncReads;
+import com.google.sps.data.AuthStatusCache;
 import com.google.sps.data.Comment;
+import com.google.sps.data.CommentBroadcaster;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.CommentSearchIndex;
+import com.google.sps.data.CommentStoreVersion;
+import com.google.sps.data.LocationRollups;
+import com.google.sps.data.ResponseSnapshot;
+import com.google.sps.data.SentimentQueues;
 import java.io.IOException;
 import java.lang.String;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Future;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -41,87 +49,241 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/data")
 public class DataServlet extends HttpServlet {
 
-  /** Class to wrap around comments array and total number of comments, used to produce json. */
-  private class CommentsWrapper {
+  /**
+   * Class to wrap around comments array, total number of comments and the cursor to append the next
+   * page from, used to produce json.
+   */
+  private static class CommentsWrapper {
     private int total = 0; 
     private ArrayList<Comment> comments;
+    private String cursor;
     
-    CommentsWrapper(int total, ArrayList<Comment> comments) {
+    CommentsWrapper(int total, ArrayList<Comment> comments, @Nullable String cursor) {
       this.total = total;
       this.comments = comments;
+      this.cursor = cursor;
     }
   }
   
   static final int LOAD_SIZE = 5;
-  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-  private Cursor cursor;
+
+  /** How long after a change the listing query may still miss it. */
+  static final long SETTLE_MILLIS = 5_000;
+
+  /** Shared so the type adapters Gson builds by reflection are made once, not per request. */
+  private static final Gson gson = new Gson();
+
+  private final CommentRepository repository = CommentRepositories.get();
+  private String cursor;
+  private Set<String> cursorFields;
+
+  /**
+   * Serialized first page of comments, shared with the server-rendered index page and rebuilt when
+   * the store version changes.
+   */
+  private static volatile FirstPage firstPage;
+
+  /** The first page of comments with every field, as json and as a response, and the cursor after it. */
+  static class FirstPage {
+    private final String json;
+    private final ResponseSnapshot snapshot;
+    private final String endCursor;
+    private final boolean settled;
+
+    FirstPage(String json, ResponseSnapshot snapshot, @Nullable String endCursor, boolean settled) {
+      this.json = json;
+      this.snapshot = snapshot;
+      this.endCursor = endCursor;
+      this.settled = settled;
+    }
+
+    String getJson() {
+      return this.json;
+    }
+  }
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     ArrayList<Comment> comments = new ArrayList<>();
     int numComments = Math.max(Integer.parseInt(request.getParameter("numComments")), LOAD_SIZE);
     String type = request.getParameter("type");
-    FetchOptions fetchOptions;
-    
+    Set<String> fields = parseFields(request.getParameter("fields"));
+    if (fields == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown field in: " + request.getParameter("fields"));
+      return;
+    }
+    int limit;
+
     switch (type) {
       case "reload":
         this.cursor = null;
-        fetchOptions = FetchOptions.Builder.withLimit(numComments);
+        limit = numComments;
         break;
       case "append":
-        fetchOptions = FetchOptions.Builder.withLimit(LOAD_SIZE);
+        limit = LOAD_SIZE;
         break;
       default:
         this.cursor = null;
-        fetchOptions = FetchOptions.Builder.withLimit(LOAD_SIZE);
+        limit = LOAD_SIZE;
     }
-     
-    if (this.cursor != null) {
-      fetchOptions.startCursor(this.cursor);
+
+    // a cursor is only valid for the query that produced it; clients that know where their last page
+    // ended send that cursor, since this servlet's own cursor is shared by every client
+    String requestedCursor = type.equals("append") ? request.getParameter("cursor") : null;
+    String startCursor = requestedCursor != null ? requestedCursor
+        : fields.equals(this.cursorFields) ? this.cursor : null;
+
+    // the first page with every field is what each visitor loads, so it is served pre-serialized
+    boolean fromSnapshot = startCursor == null && limit == LOAD_SIZE && fields.containsAll(Comment.SELECTABLE_FIELDS);
+
+    // the response only depends on the store version, the start cursor, the limit and the fields,
+    // and for the snapshot on whether its gzip variant is sent; a first page read too soon after a
+    // change may predate it, so it is sent without a tag
+    long version = CommentStoreVersion.current();
+    FirstPage first = fromSnapshot ? firstPage(repository, version) : null;
+    if (version != CommentStoreVersion.UNKNOWN && (first == null || first.settled)) {
+      String etag = buildEtag(version, startCursor, limit, fields);
+      if (fromSnapshot) {
+        response.setHeader("Vary", "Accept-Encoding");
+        if (ResponseSnapshot.acceptsGzip(request.getHeader("Accept-Encoding"))) {
+          etag = gzipEtag(etag);
+        }
+      }
+      response.setHeader("ETag", etag);
+      response.setHeader("Cache-Control", "no-cache");
+      // the tag is derived from everything the page depends on, so any match is current, whichever
+      // instance or client the earlier response went to
+      if (etagMatches(request.getHeader("If-None-Match"), etag)) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
     }
 
-    Query query = new Query("Comment").addSort("timestamp", SortDirection.DESCENDING);
-    PreparedQuery pq = datastore.prepare(query);
-    QueryResultList<Entity> results = pq.asQueryResultList(fetchOptions);
-    for (Entity e : results) {
-      String location = (String) e.getProperty("location");
-      String link = (String) e.getProperty("link");
-      String description = (String) e.getProperty("description");
-      long id = e.getKey().getId();
-      String userEmail = (String) e.getProperty("userEmail");
-      String displayedName = (String) e.getProperty("displayedName");
-      Comment c = new Comment(location, link, description, String.valueOf(id), userEmail, displayedName);
-      comments.add(c);
+    if (first != null) {
+      this.cursor = first.endCursor;
+      this.cursorFields = fields;
+      first.snapshot.writeTo(request, response);
+      return;
     }
-    this.cursor = results.getCursor();
 
-    int total = pq.countEntities();
-    CommentsWrapper cm = new CommentsWrapper(total, comments);
+    // the page and the total are independent reads, so the page query is sent before counting
+    Future<CommentRepository.Page> pageFuture = repository.listAsync(startCursor, limit, fields);
+    int total = repository.count();
+
+    CommentRepository.Page page = AsyncReads.join(pageFuture);
+    comments.addAll(page.getComments());
+    this.cursor = page.getCursor();
+    this.cursorFields = fields;
+
+    CommentsWrapper cm = new CommentsWrapper(total, comments, page.getCursor());
 
-    Gson gson = new Gson();
     String json = gson.toJson(cm);
     response.setContentType("application/json;");
     response.getWriter().println(json);
   }
 
+  /**
+   * Get the first page of comments, from the shared snapshot if it was built at this store version.
+   * The listing query is eventually consistent, so a page read within SETTLE_MILLIS of the last
+   * change may not show it yet; such a page is served but not kept as the snapshot for its version.
+   */
+  static FirstPage firstPage(CommentRepository repository, long version) throws IOException {
+    FirstPage cached = firstPage;
+    if (cached != null && version != CommentStoreVersion.UNKNOWN && cached.snapshot.getVersion() == version) {
+      return cached;
+    }
+    boolean settled = System.currentTimeMillis() - CommentStoreVersion.lastChangeMillis() >= SETTLE_MILLIS;
+    Set<String> fields = new LinkedHashSet<>(Comment.SELECTABLE_FIELDS);
+    Future<CommentRepository.Page> pageFuture = repository.listAsync(null, LOAD_SIZE, fields);
+    int total = repository.count();
+    CommentRepository.Page page = AsyncReads.join(pageFuture);
+
+    String json = gson.toJson(new CommentsWrapper(total, new ArrayList<>(page.getComments()), page.getCursor()));
+    FirstPage built = new FirstPage(json, ResponseSnapshot.of(version, "application/json;", json + "\n"), page.getCursor(),
+        settled);
+    if (version != CommentStoreVersion.UNKNOWN && settled) {
+      firstPage = built;
+    }
+    return built;
+  }
+
+  /** Build a strong ETag identifying one page of comments at one store version. */
+  static String buildEtag(long version, @Nullable String startCursor, int limit, Set<String> fields) {
+    String cursorString = startCursor == null ? "" : startCursor;
+    String tag = version + ":" + cursorString + ":" + limit + ":" + String.join(",", fields);
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(tag.getBytes(StandardCharsets.UTF_8));
+      return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16)) + "\"";
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is required of every Java platform", e);
+    }
+  }
+
+  /** Tag the gzip body of a page apart from its identity body, since a strong ETag names exact bytes. */
+  static String gzipEtag(String etag) {
+    return etag.substring(0, etag.length() - 1) + "-gz\"";
+  }
+
+  /** Check whether an If-None-Match header lists the given ETag. */
+  static boolean etagMatches(@Nullable String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      if (candidate.trim().equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parse the comma separated fields parameter into the canonical field order.
+   * Returns every selectable field when the parameter is absent, and null if it names an unknown field.
+   */
+  @Nullable
+  static Set<String> parseFields(@Nullable String param) {
+    if (param == null || param.trim().isEmpty()) {
+      return new LinkedHashSet<>(Comment.SELECTABLE_FIELDS);
+    }
+    Set<String> requested = new LinkedHashSet<>();
+    for (String field : param.split(",")) {
+      field = field.trim();
+      if (field.isEmpty() || field.equals("id")) {
+        continue;
+      }
+      if (!Comment.SELECTABLE_FIELDS.contains(field)) {
+        return null;
+      }
+      requested.add(field);
+    }
+    Set<String> fields = new LinkedHashSet<>();
+    for (String field : Comment.SELECTABLE_FIELDS) {
+      if (requested.contains(field)) {
+        fields.add(field);
+      }
+    }
+    return fields;
+  }
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String location = request.getParameter("location");
     String link = request.getParameter("link");
     String description = request.getParameter("description");
-    String userEmail = UserServiceFactory.getUserService().getCurrentUser().getEmail();
+    AuthStatusCache.Status cached = AuthStatusCache.read(request);
+    String userEmail = cached != null && cached.isLoggedIn()
+        ? cached.getUserEmail()
+        : UserServiceFactory.getUserService().getCurrentUser().getEmail();
     String displayedName = request.getParameter("anonCheck") == null ? request.getParameter("displayedName") : "anon";
 
-    Entity commentEntity = new Entity("Comment");
-    commentEntity.setProperty("location", location);
-    commentEntity.setProperty("link", link);
-    commentEntity.setProperty("description", description);
-    commentEntity.setProperty("userEmail", userEmail);
-    commentEntity.setProperty("displayedName", displayedName);
     long timestamp = System.currentTimeMillis();
-    commentEntity.setProperty("timestamp", timestamp);
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    datastore.put(commentEntity);
+    Comment comment = repository.add(location, link, description, userEmail, displayedName, timestamp);
+    CommentStoreVersion.bump();
+    CommentSearchIndex.get().add(Long.parseLong(comment.getId()), location, description);
+    LocationRollups.get().add(Long.parseLong(comment.getId()), location, timestamp);
+    SentimentQueues.get().submit(Long.parseLong(comment.getId()), description);
+    CommentBroadcaster.get().publish(comment);
   }
 }
@@ -14,11 +14,15 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.CommentSearchIndex;
+import com.google.sps.data.CommentStoreVersion;
+import com.google.sps.data.LocationRollups;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -32,8 +36,17 @@ public class DeleteDataServlet extends HttpServlet {
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     long id = Long.parseLong(request.getParameter("id"));
 
-    Key commentEntityKey = KeyFactory.createKey("Comment", id);
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    datastore.delete(commentEntityKey);
+    // the comment is read first for its location and timestamp, but the rollups only change once it
+    // is gone, so a failed delete leaves them counting it
+    CommentRepository repository = CommentRepositories.get();
+    List<Comment> deleted = repository.get(Collections.singletonList(id));
+    repository.delete(id);
+    CommentStoreVersion.bump();
+    CommentSearchIndex.get().remove(id);
+    for (Comment comment : deleted) {
+      if (comment.getTimestamp() != null) {
+        LocationRollups.get().remove(id, comment.getLocation(), comment.getTimestamp());
+      }
+    }
   }
 }
\ No newline at end of file
@@ -0,0 +1,101 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.ImageDerivatives;
+import com.google.sps.data.ImageDerivatives.Derivative;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that serves gallery images resized to a width, e.g. /img/point-lobos.jpg?w=480.
+ *
+ * Cached derivatives are written straight away. Otherwise the request builds the derivative itself,
+ * and is answered with 503 if too many images are already being decoded.
+ */
+@WebServlet("/img/*")
+public class ImageServlet extends HttpServlet {
+
+  static final String SOURCE_DIR = "/imgs/";
+
+  private static final Logger logger = Logger.getLogger(ImageServlet.class.getName());
+  private static final Pattern NAME = Pattern.compile("[a-z0-9-]+\\.(jpg|png)");
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String name = request.getPathInfo() == null ? "" : request.getPathInfo().substring(1);
+    if (!NAME.matcher(name).matches() || getServletContext().getResource(SOURCE_DIR + name) == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    int width;
+    try {
+      width = ImageDerivatives.snapWidth(Integer.parseInt(request.getParameter("w")));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing or invalid width: " + request.getParameter("w"));
+      return;
+    }
+
+    Derivative derivative;
+    try {
+      derivative = ImageDerivatives.get().derive(
+          name, () -> getServletContext().getResourceAsStream(SOURCE_DIR + name), width);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not resize " + name, e);
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      return;
+    }
+    if (derivative == null) {
+      unavailable(response);
+      return;
+    }
+    send(request, response, derivative);
+  }
+
+  /** Write a derivative, which never changes for a given ETag, with headers allowing it to be cached forever. */
+  private static void send(HttpServletRequest request, HttpServletResponse response, Derivative derivative)
+      throws IOException {
+    String etag = "\"" + derivative.getTag() + "\"";
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+    if (DataServlet.etagMatches(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(derivative.getPath());
+    } catch (IOException e) {
+      // evicted between lookup and read; the next request rebuilds it
+      unavailable(response);
+      return;
+    }
+    response.setContentType(derivative.getContentType());
+    response.setContentLength(bytes.length);
+    response.getOutputStream().write(bytes);
+  }
+
+  private static void unavailable(HttpServletResponse response) throws IOException {
+    response.setHeader("Retry-After", "1");
+    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+  }
+}
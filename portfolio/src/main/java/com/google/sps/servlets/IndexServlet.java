@@ -0,0 +1,99 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.CommentStoreVersion;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that renders index.html with the user's auth status and the first page of comments
+ * inlined, so the page can show them without calling /auth and /data after it loads.
+ *
+ * The page is read once and split at its initial-state marker; each request only serializes the
+ * auth status, and the comments come from the same snapshot /data serves.
+ */
+@WebServlet(urlPatterns = {"", "/index.html"})
+public class IndexServlet extends HttpServlet {
+
+  static final String TEMPLATE = "/index.html";
+  static final String STATE_MARKER = "<!-- initial-state -->";
+
+  private final CommentRepository repository = CommentRepositories.get();
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final Gson gson = new Gson();
+
+  /** The page before and after the marker; the state is left out if the page has no marker. */
+  private String head;
+  private String tail;
+
+  @Override
+  public void init() throws ServletException {
+    String page;
+    try (InputStream in = getServletContext().getResourceAsStream(TEMPLATE)) {
+      if (in == null) {
+        throw new ServletException("Missing page template " + TEMPLATE);
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[16 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+      page = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new ServletException("Could not read page template " + TEMPLATE, e);
+    }
+    int marker = page.indexOf(STATE_MARKER);
+    head = marker < 0 ? page : page.substring(0, marker);
+    tail = marker < 0 ? "" : page.substring(marker + STATE_MARKER.length());
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // both usually come from caches; the auth lookup mostly reads the request environment
+    long version = CommentStoreVersion.current();
+    DataServlet.FirstPage firstPage = DataServlet.firstPage(repository, version);
+    AuthServlet.AuthStatus auth = AuthServlet.lookUp(userService, request, response);
+
+    // the page depends on who is logged in, so it must not be shared or reused without revalidating
+    response.setHeader("Cache-Control", "private, no-cache");
+    response.setContentType("text/html;charset=UTF-8");
+    PrintWriter out = response.getWriter();
+    out.write(head);
+    if (!tail.isEmpty()) {
+      // Gson escapes <, > and & in strings, so the json cannot close the script element
+      out.write("<script id=\"initial-state\" type=\"application/json\">{\"auth\":");
+      out.write(gson.toJson(auth));
+      out.write(",\"comments\":");
+      out.write(firstPage.getJson());
+      out.write("}</script>");
+    }
+    out.write(tail);
+  }
+}
@@ -0,0 +1,73 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.CommentSearchIndex;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that searches comments by location and description using the in-memory search index,
+ * which CommentIndexesListener builds when the instance starts.
+ */
+@WebServlet("/data/search")
+public class SearchServlet extends HttpServlet {
+
+  static final int MAX_RESULTS = 50;
+
+  private final CommentRepository repository = CommentRepositories.get();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String q = request.getParameter("q");
+    if (q == null || q.trim().isEmpty()) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing search query q");
+      return;
+    }
+    Set<String> fields = DataServlet.parseFields(request.getParameter("fields"));
+    if (fields == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown field in: " + request.getParameter("fields"));
+      return;
+    }
+    String limitParam = request.getParameter("limit");
+    int limit;
+    try {
+      limit = limitParam == null ? DataServlet.LOAD_SIZE : Math.min(Integer.parseInt(limitParam), MAX_RESULTS);
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid limit: " + limitParam);
+      return;
+    }
+
+    List<Comment> comments = new ArrayList<>();
+    for (Comment comment : repository.get(CommentSearchIndex.get().search(q, limit))) {
+      comments.add(comment.withOnly(fields));
+    }
+
+    Gson gson = new Gson();
+    String json = gson.toJson(comments);
+    response.setContentType("application/json;");
+    response.getWriter().println(json);
+  }
+}
@@ -0,0 +1,58 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.LanguageSentimentScorer;
+import com.google.sps.data.SentimentTasks;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs the push task SentimentTasks schedules for each window of new comments, scoring every
+ * comment still pending. Only the task queue may call it: App Engine strips the queue name header
+ * from outside requests.
+ */
+@WebServlet(SentimentTasks.BATCH_URL)
+public class SentimentTaskServlet extends HttpServlet {
+
+  private SentimentTasks tasks;
+
+  @Override
+  public void init() {
+    tasks = new SentimentTasks(CommentRepositories.get(), new LanguageSentimentScorer());
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (request.getHeader("X-AppEngine-QueueName") == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    try {
+      int scored = tasks.scorePending(ThreadManager.currentRequestThreadFactory());
+      response.setContentType("text/plain");
+      response.getWriter().println("Scored " + scored + " comments");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      // a failed task is retried, and the comments it leased go back to the pending queue
+      throw new IOException("Interrupted while scoring comments", e);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.ResponseSnapshot;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Sets caching headers for static files served by the app: fingerprinted assets are immutable
+ * and served from their precompressed copy when the client accepts gzip, while pages are
+ * revalidated on every visit so they always point at the current assets.
+ *
+ * On App Engine the static file handlers in appengine-web.xml apply the same policy.
+ */
+@WebFilter("/*")
+public class StaticAssetFilter implements Filter {
+  /** Directory, relative to the webapp root, holding the assets the build fingerprints. */
+  public static final String ASSET_DIR = "assets";
+
+  private static final String ASSET_PREFIX = "/" + ASSET_DIR + "/";
+
+  private ServletContext context;
+
+  @Override
+  public void init(FilterConfig config) {
+    this.context = config.getServletContext();
+  }
+
+  @Override
+  public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    HttpServletResponse response = (HttpServletResponse) servletResponse;
+    String path = request.getRequestURI().substring(request.getContextPath().length());
+    if (path.startsWith(ASSET_PREFIX)) {
+      response.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+      if (ResponseSnapshot.acceptsGzip(request.getHeader("Accept-Encoding")) && sendCompressed(path, response)) {
+        return;
+      }
+    } else if (path.equals("/") || path.endsWith(".html")) {
+      response.setHeader("Cache-Control", "no-cache");
+    }
+    chain.doFilter(request, response);
+  }
+
+  @Override
+  public void destroy() {}
+
+  /** Write the .gz copy of an asset if the pipeline made one. */
+  private boolean sendCompressed(String path, HttpServletResponse response) throws IOException {
+    if (path.contains("..")) {
+      return false;
+    }
+    try (InputStream compressed = context.getResourceAsStream(path + ".gz")) {
+      if (compressed == null) {
+        return false;
+      }
+      String contentType = context.getMimeType(path);
+      if (contentType != null) {
+        response.setContentType(contentType);
+      }
+      response.setHeader("Content-Encoding", "gzip");
+      response.setHeader("Vary", "Accept-Encoding");
+      byte[] buffer = new byte[16 * 1024];
+      int read;
+      while ((read = compressed.read(buffer)) != -1) {
+        response.getOutputStream().write(buffer, 0, read);
+      }
+      return true;
+    }
+  }
+}
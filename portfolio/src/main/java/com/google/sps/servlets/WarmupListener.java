@@ -0,0 +1,61 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.sps.data.AuthStatusCache;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentStoreVersion;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Creates the services and codecs the servlets share when the app starts, so the first request
+ * does not pay for their setup. Failures are logged and left for the first request to retry.
+ */
+@WebListener
+public class WarmupListener implements ServletContextListener {
+  private static final Logger logger = Logger.getLogger(WarmupListener.class.getName());
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    long start = System.nanoTime();
+    try {
+      DatastoreServiceFactory.getDatastoreService();
+      DatastoreServiceFactory.getAsyncDatastoreService();
+      UserServiceFactory.getUserService();
+      CommentRepositories.get();
+      CommentStoreVersion.current();
+      AuthStatusCache.warmUp();
+      // loads Gson's reflective adapter machinery and the Comment class
+      new Gson().toJson(new Comment("", "", "", "0", "", ""));
+      // the first lookup scans the classpath for image codecs
+      ImageIO.getImageWritersByFormatName("jpeg").hasNext();
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Warm-up did not finish", e);
+    }
+    logger.info("Warmed up in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {}
+}
@@ -0,0 +1,97 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Handles App Engine's warmup request, sent to a new instance before it receives traffic, by
+ * running the pages visitors load first and discarding their output. This initializes those
+ * servlets and fills the first page snapshot, auth URL and page template caches.
+ */
+@WebServlet("/_ah/warmup")
+public class WarmupServlet extends HttpServlet {
+
+  /** Requests every visitor makes, in the order the page makes them. */
+  static final String[] WARM_PATHS = {"/index.html", "/auth", "/data?type=load&numComments=0", "/data/locations"};
+
+  private static final Logger logger = Logger.getLogger(WarmupServlet.class.getName());
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    StringBuilder report = new StringBuilder();
+    for (String path : WARM_PATHS) {
+      long start = System.nanoTime();
+      RequestDispatcher dispatcher = getServletContext().getRequestDispatcher(path);
+      try {
+        dispatcher.include(request, new DiscardingResponse(response));
+        report.append(path).append(' ').append((System.nanoTime() - start) / 1_000_000).append(" ms\n");
+      } catch (ServletException | IOException | RuntimeException e) {
+        logger.log(Level.WARNING, "Could not warm up " + path, e);
+        report.append(path).append(" failed\n");
+      }
+    }
+    response.setContentType("text/plain");
+    response.getWriter().print(report);
+  }
+
+  /** Response whose body goes nowhere. */
+  private static class DiscardingResponse extends HttpServletResponseWrapper {
+    private final ServletOutputStream out = new ServletOutputStream() {
+      @Override
+      public void write(int b) {}
+
+      @Override
+      public void write(byte[] b, int off, int len) {}
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {}
+    };
+    private final PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+
+    DiscardingResponse(HttpServletResponse response) {
+      super(response);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+      return out;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+      return writer;
+    }
+  }
+}
@@ -27,6 +27,19 @@ const LoadType = {
   APPEND: 'append',
 };
 
+/** Widths of the resized copies offered to the browser for each photo. */
+const photoWidths = [320, 480, 640, 960, 1280];
+
+/**
+ * Build the url of a resized copy of a gallery image
+ * @param {string} src path of the full size image, e.g. imgs/point-lobos.jpg
+ * @param {number} width width in pixels
+ * @return {string}
+ */
+function resizedPhotoUrl(src, width) {
+  return `${src.replace(/^imgs\//, 'img/')}?w=${width}`;
+}
+
 /**
  * Create photo component with caption
  * @param {Photo} photo a Photo object that contains the data for a photo html component
@@ -38,7 +51,10 @@ function createPhoto(photo) {
       <figure class="figure">
         <div class="figure-img-container">
           <img
-            src="${photo.src}"
+            src="${resizedPhotoUrl(photo.src, 640)}"
+            srcset="${photoWidths.map((width) => `${resizedPhotoUrl(photo.src, width)} ${width}w`).join(', ')}"
+            sizes="(min-width: 992px) 33vw, (min-width: 768px) 50vw, 100vw"
+            loading="lazy"
             class="img-fluid rounded"
             alt="${photo.location}"
           />
@@ -265,6 +281,22 @@ $('#delete-modal').on('show.bs.modal', function (event) {
   $('#confirm-delete').click(() => deleteComment(cid));
 });
 
+// total number of comments in datastore, as of the last load or pushed comment
+let totalComments = 0;
+
+// cursor to append the next page of comments from, as of the last load
+let nextCursor = null;
+
+// comment fields createComment renders; that is every field, so /data answers these requests
+// with full entities and only uses projection queries for clients that ask for fewer
+const COMMENT_FIELDS = [
+  'location',
+  'displayedName',
+  'link',
+  'userEmail',
+  'description',
+];
+
 /**
  * fetch comments from datastore to display
  * @param {string} type the request parameter
@@ -273,51 +305,102 @@ function loadComments(type = LoadType.LOAD) {
   $('#load-more-btn-txt').text('Loading . . .');
 
   const numComments = $('.comment').length;
+  const cursor =
+    type === LoadType.APPEND && nextCursor
+      ? `&cursor=${encodeURIComponent(nextCursor)}`
+      : '';
+  const fields = `&fields=${COMMENT_FIELDS.join(',')}`;
+  fetch(`/data?type=${type}&numComments=${numComments}${fields}${cursor}`)
+    .then((response) => response.json())
+    .then((json) => showComments(json, type));
+}
+
+/**
+ * Add a page of comments to the DOM
+ * @param {Object} json comments, total and cursor, as returned by /data
+ * @param {string} type the request parameter the page was loaded with
+ */
+function showComments(json, type) {
   const comments = [];
   const commentIds = [];
-  fetch(`/data?type=${type}&numComments=${numComments}`)
-    .then((response) => response.json())
-    .then((json) => {
-      // indicate if there are no comments
-      if (jQuery.isEmptyObject(json.comments)) {
-        $('#comments')
-          .children()
-          .replaceWith('<div class="empty-notice">No Recommendations</div>');
-        $('#load-more-btn').prop('disabled', true);
-        return;
-      }
-
-      // add comments to DOM
-      for (const comment of json.comments) {
-        const component = createComment(comment);
-        comments.push(component);
-        commentIds.push(`btn-${comment.id}`);
-      }
-      if (type === LoadType.LOAD || type === LoadType.RELOAD) {
-        $('#comments').empty();
-      }
-      $('#comments').append(comments);
-
-      // comments count & load more button
-      const numLoaded = $('.comment').length;
-      $('#rec-count').show();
-      $('#rec-count').text(`Comments: ${numLoaded}/${json.total}`);
-      $('#load-more-btn').prop('disabled', numLoaded === json.total);
-    })
-    .then(() => {
-      // add individual event listeners per comment
-      for (const cid of commentIds) {
-        $(`#${cid}`).click(() => {
-          $(`#${cid}`).find('.fa-caret-right').toggleClass('rotated');
-        });
-      }
-
-      $('#load-more-btn-txt').text('Load More');
+
+  // indicate if there are no comments
+  if (jQuery.isEmptyObject(json.comments)) {
+    $('#comments')
+      .children()
+      .replaceWith('<div class="empty-notice">No Recommendations</div>');
+    $('#load-more-btn').prop('disabled', true);
+    $('#load-more-btn-txt').text('Load More');
+    return;
+  }
+
+  // add comments to DOM
+  for (const comment of json.comments) {
+    const component = createComment(comment);
+    comments.push(component);
+    commentIds.push(`btn-${comment.id}`);
+  }
+  if (type === LoadType.LOAD || type === LoadType.RELOAD) {
+    $('#comments').empty();
+  }
+  $('#comments').append(comments);
+
+  // comments count & load more button
+  totalComments = json.total;
+  nextCursor = json.cursor || null;
+  updateCommentCount();
+
+  // add individual event listeners per comment
+  for (const cid of commentIds) {
+    $(`#${cid}`).click(() => {
+      $(`#${cid}`).find('.fa-caret-right').toggleClass('rotated');
     });
+  }
+
+  $('#load-more-btn-txt').text('Load More');
 }
 
 $('#load-more-btn').click(() => loadComments(LoadType.APPEND));
 
+/**
+ * Show the number of loaded comments out of the total, and disable load more once all are shown.
+ */
+function updateCommentCount() {
+  const numLoaded = $('.comment').length;
+  $('#rec-count').show();
+  $('#rec-count').text(`Comments: ${numLoaded}/${totalComments}`);
+  $('#load-more-btn').prop('disabled', numLoaded === totalComments);
+}
+
+/**
+ * Listen for comments posted by anyone and add them to the top of the list as they arrive.
+ * The server sends a reload event when this page missed comments and must fetch them again.
+ */
+function subscribeToComments() {
+  if (!window.EventSource) {
+    return;
+  }
+  const source = new EventSource('/data/stream');
+  source.addEventListener('comment', (event) => {
+    const comment = JSON.parse(event.data);
+    if ($(`#btn-${comment.id}`).length > 0) {
+      return;
+    }
+    $('#comments').find('.empty-notice').remove();
+    $('#comments').prepend(createComment(comment));
+    $(`#btn-${comment.id}`).click(() => {
+      $(`#btn-${comment.id}`).find('.fa-caret-right').toggleClass('rotated');
+    });
+    totalComments += 1;
+    updateCommentCount();
+  });
+  source.addEventListener('reload', () =>
+    $('.comment').length > 0
+      ? loadComments(LoadType.RELOAD)
+      : loadComments(LoadType.LOAD)
+  );
+}
+
 /**
  * Make POST request to /data upon submission of recommendation form to add comment to datastore.
  */
@@ -349,18 +432,33 @@ $('#anonCheck-container').click(() => {
 function checkLogin() {
   fetch('/auth')
     .then((res) => res.json())
-    .then((json) => {
-      if (json.isLoggedIn) {
-        $('#rec-form').show();
-        $('#login').hide();
-        $('#user-email').text(json.userEmail);
-        $('#logout-btn').click(() => window.open(json.url, '_self'));
-      } else {
-        $('#rec-form').hide();
-        $('#login').show();
-        $('#login-btn').click(() => window.open(json.url, '_self'));
-      }
-    });
+    .then(showAuthStatus);
+}
+
+/**
+ * Display the comments form or the log in button
+ * @param {Object} json login status, email and log in or out url, as returned by /auth
+ */
+function showAuthStatus(json) {
+  if (json.isLoggedIn) {
+    $('#rec-form').show();
+    $('#login').hide();
+    $('#user-email').text(json.userEmail);
+    $('#logout-btn').click(() => window.open(json.url, '_self'));
+  } else {
+    $('#rec-form').hide();
+    $('#login').show();
+    $('#login-btn').click(() => window.open(json.url, '_self'));
+  }
+}
+
+/**
+ * Read the auth status and first comments the server inlined into the page
+ * @return {?Object} the state, or null if the page was served without it
+ */
+function readInitialState() {
+  const element = document.getElementById('initial-state');
+  return element ? JSON.parse(element.textContent) : null;
 }
 
 // ref: https://getbootstrap.com/docs/4.0/components/modal/#varying-modal-content
@@ -397,6 +495,13 @@ $(document).ready(() => {
   generatePhotoComponents();
   mapPhotos();
   sortPhotos();
-  checkLogin();
-  loadComments(LoadType.LOAD);
+  const initialState = readInitialState();
+  if (initialState) {
+    showAuthStatus(initialState.auth);
+    showComments(initialState.comments, LoadType.LOAD);
+  } else {
+    checkLogin();
+    loadComments(LoadType.LOAD);
+  }
+  subscribeToComments();
 });
@@ -0,0 +1,222 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.assets;
+
+import com.google.sps.servlets.StaticAssetFilter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Build step that copies the static assets a page references to content-hashed names under
+ * assets/, so they can be cached forever, and rewrites the page to point at them.
+ *
+ * References are followed transitively: src and href attributes in the page, relative module
+ * imports in scripts and url() in stylesheets. A referencing file is hashed after rewriting, so a
+ * change to any dependency changes the names of everything that imports it. Text assets also get
+ * a precompressed .gz copy.
+ *
+ * Usage: AssetPipeline webappDir outputDir [page...]; pages default to index.html. It runs at
+ * build time only, so it lives with the test sources and stays out of the WAR.
+ */
+public final class AssetPipeline {
+  private static final int HASH_LENGTH = 10;
+  private static final Set<String> COMPRESSIBLE = new HashSet<>(Arrays.asList("js", "css", "svg", "json", "txt"));
+
+  private static final Pattern HTML_REFERENCE = Pattern.compile("(\\b(?:src|href)\\s*=\\s*\")([^\"#?]+)(\")");
+  private static final Pattern JS_IMPORT = Pattern.compile("(\\b(?:from|import)\\s*['\"])(\\.\\.?/[^'\"]+)(['\"])");
+  private static final Pattern CSS_URL = Pattern.compile("(url\\(\\s*['\"]?)([^'\")#?]+)(['\"]?\\s*\\))");
+
+  private final Path webapp;
+  private final Path output;
+
+  /** Webapp-relative path of each processed asset to the path of its fingerprinted copy. */
+  private final Map<String, String> fingerprinted = new HashMap<>();
+  private final Deque<String> inProgress = new ArrayDeque<>();
+
+  public AssetPipeline(Path webapp, Path output) {
+    this.webapp = webapp;
+    this.output = output;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: AssetPipeline webappDir outputDir [page...]");
+      System.exit(2);
+    }
+    Path output = Paths.get(args[1]);
+    // start from an empty directory so assets fingerprinted by earlier builds are not packaged again
+    deleteRecursively(output);
+    AssetPipeline pipeline = new AssetPipeline(Paths.get(args[0]), output);
+    String[] pages = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : new String[] {"index.html"};
+    for (String page : pages) {
+      pipeline.processPage(page);
+    }
+    System.out.println("Fingerprinted " + pipeline.fingerprinted.size() + " assets into " + args[1]);
+  }
+
+  /** Delete a directory and everything under it, if it exists. */
+  static void deleteRecursively(Path directory) throws IOException {
+    if (!Files.exists(directory)) {
+      return;
+    }
+    List<Path> paths = new ArrayList<>();
+    try (Stream<Path> walk = Files.walk(directory)) {
+      walk.forEach(paths::add);
+    }
+    // children come after their parents in a walk, so delete in reverse
+    for (int i = paths.size() - 1; i >= 0; i--) {
+      Files.delete(paths.get(i));
+    }
+  }
+
+  /** Write a page with its asset references rewritten; the page itself keeps its name. */
+  public void processPage(String page) throws IOException {
+    String html = new String(Files.readAllBytes(webapp.resolve(page)), StandardCharsets.UTF_8);
+    write(page, rewrite(page, page, html, HTML_REFERENCE).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Fingerprinted paths by original path, for the assets processed so far. */
+  public Map<String, String> getFingerprinted() {
+    return fingerprinted;
+  }
+
+  /** Copy an asset, and everything it references, to its fingerprinted name. */
+  private String fingerprint(String path) throws IOException {
+    String done = fingerprinted.get(path);
+    if (done != null) {
+      return done;
+    }
+    if (inProgress.contains(path)) {
+      throw new IllegalStateException("Circular asset reference: " + inProgress + " -> " + path);
+    }
+    inProgress.push(path);
+
+    String extension = extension(path);
+    byte[] bytes = Files.readAllBytes(webapp.resolve(path));
+    String outputPath = StaticAssetFilter.ASSET_DIR + "/" + path;
+    if (extension.equals("js") || extension.equals("css")) {
+      String text = new String(bytes, StandardCharsets.UTF_8);
+      text = rewrite(path, outputPath, text, extension.equals("js") ? JS_IMPORT : CSS_URL);
+      bytes = text.getBytes(StandardCharsets.UTF_8);
+    }
+    String base = StaticAssetFilter.ASSET_DIR + "/" + path.substring(0, path.length() - extension.length());
+    String hashedPath = extension.isEmpty() ? base + "." + hash(bytes) : base + hash(bytes) + "." + extension;
+    write(hashedPath, bytes);
+    if (COMPRESSIBLE.contains(extension)) {
+      write(hashedPath + ".gz", gzip(bytes));
+    }
+
+    inProgress.pop();
+    fingerprinted.put(path, hashedPath);
+    return hashedPath;
+  }
+
+  /**
+   * Replace references to local files with their fingerprinted paths.
+   *
+   * @param from webapp-relative path of the file, which references are resolved against
+   * @param outputFrom path the rewritten file is written to, which new references are relative to
+   */
+  private String rewrite(String from, String outputFrom, String text, Pattern references) throws IOException {
+    Matcher matcher = references.matcher(text);
+    StringBuffer rewritten = new StringBuffer();
+    while (matcher.find()) {
+      String reference = matcher.group(2).trim();
+      String target = resolve(from, reference);
+      String replacement = reference;
+      if (target != null && Files.isRegularFile(webapp.resolve(target))) {
+        replacement = relative(outputFrom, fingerprint(target));
+        if (reference.startsWith("./") && !replacement.startsWith("../")) {
+          replacement = "./" + replacement;
+        }
+      }
+      matcher.appendReplacement(rewritten,
+          Matcher.quoteReplacement(matcher.group(1) + replacement + matcher.group(3)));
+    }
+    matcher.appendTail(rewritten);
+    return rewritten.toString();
+  }
+
+  /** Resolve a reference against the file containing it, or return null if it is not a local file. */
+  private static String resolve(String from, String reference) {
+    if (reference.isEmpty() || reference.startsWith("/") || reference.startsWith("data:")
+        || reference.contains("://") || reference.startsWith("WEB-INF")) {
+      return null;
+    }
+    Path parent = Paths.get(from).getParent();
+    Path resolved = (parent == null ? Paths.get(reference) : parent.resolve(reference)).normalize();
+    if (resolved.startsWith("..") || resolved.startsWith("WEB-INF")) {
+      return null;
+    }
+    return resolved.toString().replace('\\', '/');
+  }
+
+  private static String relative(String from, String to) {
+    Path parent = Paths.get(from).getParent();
+    Path target = Paths.get(to);
+    return (parent == null ? target : parent.relativize(target)).toString().replace('\\', '/');
+  }
+
+  private void write(String path, byte[] bytes) throws IOException {
+    Path file = output.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, bytes);
+  }
+
+  private static String extension(String path) {
+    String name = Paths.get(path).getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? "" : name.substring(dot + 1);
+  }
+
+  private static String hash(byte[] bytes) {
+    try {
+      StringBuilder hex = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.substring(0, HASH_LENGTH);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is required of every Java platform", e);
+    }
+  }
+
+  private static byte[] gzip(byte[] bytes) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 3 + 64);
+    try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+      out.write(bytes);
+    }
+    return compressed.toByteArray();
+  }
+}
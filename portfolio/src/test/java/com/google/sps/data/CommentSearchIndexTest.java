@@ -0,0 +1,96 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class CommentSearchIndexTest {
+  private static final long BIG_SUR = 5629499534213120L;
+  private static final long TAHOE = 5639445604728832L;
+  private static final long BIG_BASIN = 5668600916475904L;
+
+  private CommentSearchIndex index;
+
+  @Before
+  public void setUp() {
+    index = new CommentSearchIndex();
+    index.add(BIG_SUR, "Big Sur", "Drive down Highway 1 at sunset.");
+    index.add(TAHOE, "Lake Tahoe", "Clear water, great hiking.");
+    index.add(BIG_BASIN, "Big Basin", "Redwoods and a long hike to the beach.");
+  }
+
+  @Test
+  public void termQueryIsCaseInsensitive() {
+    Assert.assertEquals(Arrays.asList(TAHOE), index.search("TAHOE", 10));
+  }
+
+  @Test
+  public void resultsAreNewestFirst() {
+    Assert.assertEquals(Arrays.asList(BIG_BASIN, BIG_SUR), index.search("big", 10));
+  }
+
+  @Test
+  public void wordsAreIntersected() {
+    Assert.assertEquals(Arrays.asList(BIG_SUR), index.search("big sunset", 10));
+  }
+
+  @Test
+  public void prefixQuery() {
+    Assert.assertEquals(Arrays.asList(BIG_BASIN, TAHOE), index.search("hik*", 10));
+  }
+
+  @Test
+  public void limitCapsResults() {
+    Assert.assertEquals(Arrays.asList(BIG_BASIN), index.search("big", 1));
+  }
+
+  @Test
+  public void removedCommentsAreNotReturned() {
+    index.remove(BIG_BASIN);
+
+    Assert.assertEquals(Arrays.asList(BIG_SUR), index.search("big", 10));
+    Assert.assertEquals(2, index.size());
+  }
+
+  @Test
+  public void readdingReplacesText() {
+    index.add(BIG_SUR, "Point Lobos", null);
+
+    Assert.assertEquals(Arrays.asList(BIG_BASIN), index.search("big", 10));
+    Assert.assertEquals(Arrays.asList(BIG_SUR), index.search("lobos", 10));
+  }
+
+  @Test
+  public void largeGapsRoundTrip() {
+    for (long id = 0; id < 1000; id++) {
+      index.add(id, id % 300 == 0 ? "rare" : "common");
+    }
+
+    Assert.assertEquals(Arrays.asList(900L, 600L, 300L, 0L), index.search("rare", 10));
+  }
+
+  @Test
+  public void unknownTermMatchesNothing() {
+    Assert.assertEquals(Collections.emptyList(), index.search("yosemite", 10));
+  }
+}
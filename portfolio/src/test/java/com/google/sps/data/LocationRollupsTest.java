@@ -0,0 +1,70 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class LocationRollupsTest {
+  private LocationRollups rollups;
+
+  @Before
+  public void setUp() {
+    rollups = new LocationRollups();
+  }
+
+  @Test
+  public void removingLatestCommentRestoresEarlierSpelling() {
+    rollups.add(1, "Big Sur", 1000);
+    rollups.add(2, "big sur ", 2000);
+
+    rollups.remove(2, "big sur ", 2000);
+
+    List<LocationRollups.Rollup> snapshot = rollups.snapshot();
+    Assert.assertEquals(1, snapshot.size());
+    Assert.assertEquals("Big Sur", snapshot.get(0).getLocation());
+    Assert.assertEquals(1, snapshot.get(0).getCount());
+    Assert.assertEquals(1000, snapshot.get(0).getLatestTimestamp());
+  }
+
+  @Test
+  public void rebuildKeepsUpdatesMadeDuringTheScan() {
+    rollups.add(1, "Tahoe", 1000);
+    rollups.add(2, "Tahoe", 2000);
+
+    LocationRollups rebuilt = rollups.startRebuild();
+    // the scan sees comment 1, then comment 3 arrives, comment 2 is deleted, and the scan sees 2 and 3
+    rebuilt.add(1, "Tahoe", 1000);
+    rollups.add(3, "Tahoe", 3000);
+    rollups.remove(2, "Tahoe", 2000);
+    rebuilt.add(2, "Tahoe", 2000);
+    rebuilt.add(3, "Tahoe", 3000);
+    rollups.finishRebuild(rebuilt);
+
+    List<LocationRollups.Rollup> snapshot = rollups.snapshot();
+    Assert.assertEquals(2, snapshot.get(0).getCount());
+    Assert.assertEquals(3000, snapshot.get(0).getLatestTimestamp());
+
+    // updates after the rebuild land in the rebuilt tallies
+    rollups.add(4, "Tahoe", 4000);
+    Assert.assertEquals(3, rollups.snapshot().get(0).getCount());
+  }
+}
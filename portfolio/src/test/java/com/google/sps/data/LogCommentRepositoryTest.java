@@ -0,0 +1,173 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class LogCommentRepositoryTest {
+  private static final int SMALL_SEGMENT_BYTES = 1024;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+  private LogCommentRepository repository;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = folder.getRoot().toPath();
+    repository = new LogCommentRepository(directory, SMALL_SEGMENT_BYTES, false);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    repository.close();
+  }
+
+  @Test
+  public void listsNewestFirstAcrossPages() throws IOException {
+    for (int i = 0; i < 5; i++) {
+      repository.add("place " + i, "link", "description", "a@example.com", "A", 1000 + i);
+    }
+
+    CommentRepository.Page first = repository.list(null, 3, allFields());
+    CommentRepository.Page second = repository.list(first.getCursor(), 3, allFields());
+
+    Assert.assertEquals(Arrays.asList("place 4", "place 3", "place 2"), locations(first.getComments()));
+    Assert.assertEquals(Arrays.asList("place 1", "place 0"), locations(second.getComments()));
+    Assert.assertEquals(5, repository.count());
+  }
+
+  @Test
+  public void trimsToSelectedFields() throws IOException {
+    repository.add("Big Sur", "link", "long description", "a@example.com", "A", 1000);
+
+    Comment comment = repository.list(null, 1, new LinkedHashSet<>(Arrays.asList("location"))).getComments().get(0);
+
+    Assert.assertEquals("Big Sur", comment.getLocation());
+    Assert.assertNull(comment.getDescription());
+    Assert.assertNull(comment.getUserEmail());
+  }
+
+  @Test
+  public void deleteRemovesComment() throws IOException {
+    Comment kept = repository.add("kept", null, null, "a@example.com", "A", 1000);
+    Comment deleted = repository.add("deleted", null, null, "a@example.com", "A", 2000);
+
+    repository.delete(Long.parseLong(deleted.getId()));
+
+    Assert.assertEquals(Arrays.asList("kept"), locations(repository.list(null, 10, allFields()).getComments()));
+    Assert.assertEquals(Arrays.asList("kept"),
+        locations(repository.get(Arrays.asList(Long.parseLong(kept.getId()), Long.parseLong(deleted.getId())))));
+  }
+
+  @Test
+  public void reopenReplaysLog() throws IOException {
+    Comment first = repository.add("first", "link", "description", "a@example.com", "A", 1000);
+    repository.add("second", "link", null, "b@example.com", "B", 2000);
+    repository.delete(Long.parseLong(first.getId()));
+    repository.close();
+
+    repository = new LogCommentRepository(directory, SMALL_SEGMENT_BYTES, false);
+    Comment third = repository.add("third", "link", null, "c@example.com", "C", 3000);
+
+    Assert.assertEquals(Arrays.asList("third", "second"), locations(repository.list(null, 10, allFields()).getComments()));
+    Assert.assertEquals("3", third.getId());
+  }
+
+  @Test
+  public void compactionDropsDeletedRecordsAndSurvivesReopen() throws IOException {
+    List<Long> ids = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      ids.add(Long.parseLong(repository.add("place " + i, "link", "description " + i, "a@example.com", "A", i).getId()));
+    }
+    for (int i = 0; i < 200; i++) {
+      if (i % 10 != 0) {
+        repository.delete(ids.get(i));
+      }
+    }
+    // roll the active segment so the garbage is compacted
+    for (int i = 200; i < 220; i++) {
+      repository.add("place " + i, "link", "description " + i, "a@example.com", "A", i);
+    }
+    int segmentsAfterCompaction = repository.segmentCount();
+    repository.close();
+
+    repository = new LogCommentRepository(directory, SMALL_SEGMENT_BYTES, false);
+
+    Assert.assertTrue(segmentsAfterCompaction < 10);
+    Assert.assertEquals(40, repository.count());
+    List<Comment> all = repository.list(null, 100, allFields()).getComments();
+    Assert.assertEquals("place 219", all.get(0).getLocation());
+    Assert.assertEquals("place 0", all.get(all.size() - 1).getLocation());
+    Assert.assertEquals("description 190", repository.get(Arrays.asList(ids.get(190))).get(0).getDescription());
+  }
+
+  @Test
+  public void idsAreNotReusedAfterCompactingAwayTheNewest() throws IOException {
+    List<Long> ids = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      ids.add(Long.parseLong(repository.add("place " + i, "link", "description " + i, "a@example.com", "A", i).getId()));
+    }
+    for (int i = 0; i < 200; i++) {
+      if (i % 10 != 0 || i == 199) {
+        repository.delete(ids.get(i));
+      }
+    }
+    // rewrite the survivors until the segments holding the newest records are compacted away
+    Map<Long, Float> scores = new HashMap<>();
+    for (int i = 0; i < 200; i += 10) {
+      scores.put(ids.get(i), 0.5f);
+    }
+    for (int round = 0; round < 20; round++) {
+      repository.updateSentiments(scores);
+    }
+    repository.close();
+
+    repository = new LogCommentRepository(directory, SMALL_SEGMENT_BYTES, false);
+    Comment added = repository.add("new", "link", null, "a@example.com", "A", 5000);
+
+    Assert.assertTrue(Long.parseLong(added.getId()) > ids.get(199));
+  }
+
+  private static LinkedHashSet<String> allFields() {
+    return new LinkedHashSet<>(Comment.SELECTABLE_FIELDS);
+  }
+
+  private static List<String> locations(List<Comment> comments) {
+    List<String> locations = new ArrayList<>();
+    for (Comment comment : comments) {
+      locations.add(comment.getLocation());
+    }
+    return locations;
+  }
+}
@@ -0,0 +1,49 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class ResponseSnapshotTest {
+
+  @Test
+  public void acceptsGzipUnlessRefused() {
+    Assert.assertTrue(ResponseSnapshot.acceptsGzip("deflate, gzip;q=0.8"));
+    Assert.assertTrue(ResponseSnapshot.acceptsGzip("*"));
+    Assert.assertFalse(ResponseSnapshot.acceptsGzip("gzip;q=0"));
+    Assert.assertFalse(ResponseSnapshot.acceptsGzip("br"));
+    Assert.assertFalse(ResponseSnapshot.acceptsGzip(null));
+  }
+
+  @Test
+  public void gzipEntryDecidesOverWildcard() {
+    Assert.assertTrue(ResponseSnapshot.acceptsGzip("*;q=0, gzip"));
+    Assert.assertTrue(ResponseSnapshot.acceptsGzip("gzip;q=0.5, *;q=0"));
+    Assert.assertFalse(ResponseSnapshot.acceptsGzip("*, gzip;q=0"));
+    Assert.assertFalse(ResponseSnapshot.acceptsGzip("gzip;q=0, *"));
+    Assert.assertFalse(ResponseSnapshot.acceptsGzip("br, *;q=0"));
+  }
+
+  @Test
+  public void malformedQualityIsIgnored() {
+    Assert.assertTrue(ResponseSnapshot.acceptsGzip("gzip;q=high"));
+    Assert.assertTrue(ResponseSnapshot.acceptsGzip("gzip;q="));
+  }
+}
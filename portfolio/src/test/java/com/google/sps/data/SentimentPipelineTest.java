@@ -0,0 +1,166 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class SentimentPipelineTest {
+  private static final int MAX_CONCURRENT_CALLS = 2;
+
+  /** Local stand-in for the Natural Language API that tracks how many calls run at once. */
+  private static class StubScorer implements SentimentScorer {
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Override
+    public float score(String text) throws IOException {
+      int now = inFlight.incrementAndGet();
+      maxInFlight.accumulateAndGet(now, Math::max);
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } finally {
+        inFlight.decrementAndGet();
+      }
+      if (text.contains("fail")) {
+        throw new IOException("stub failure");
+      }
+      return text.contains("great") ? 0.9f : -0.5f;
+    }
+  }
+
+  /** Records the size of every batched write. */
+  private static class RecordingRepository extends InMemoryCommentRepository {
+    final List<Integer> writeSizes = new ArrayList<>();
+
+    @Override
+    public synchronized void updateSentiments(Map<Long, Float> scores) {
+      writeSizes.add(scores.size());
+      super.updateSentiments(scores);
+    }
+  }
+
+  private final StubScorer scorer = new StubScorer();
+  private final RecordingRepository repository = new RecordingRepository();
+  private SentimentPipeline pipeline;
+
+  @After
+  public void tearDown() throws InterruptedException {
+    pipeline.shutdown();
+  }
+
+  @Test
+  public void scoresAreWrittenBackInBatches() throws Exception {
+    pipeline = new SentimentPipeline(repository, scorer, 10, 500, MAX_CONCURRENT_CALLS, 100);
+    List<Long> ids = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      Comment comment = repository.add("place", null, i % 2 == 0 ? "great hike" : "too crowded", "a@example.com", "A", i);
+      ids.add(Long.parseLong(comment.getId()));
+      Assert.assertTrue(pipeline.submit(ids.get(i), comment.getDescription()));
+    }
+
+    awaitProcessed(20);
+
+    Assert.assertEquals(Arrays.asList(10, 10), repository.writeSizes);
+    Assert.assertTrue(scorer.maxInFlight.get() <= MAX_CONCURRENT_CALLS);
+    List<Comment> comments = repository.get(ids);
+    Assert.assertEquals(0.9f, comments.get(0).getSentiment(), 0f);
+    Assert.assertEquals(-0.5f, comments.get(1).getSentiment(), 0f);
+  }
+
+  @Test
+  public void failedCallsLeaveCommentUnscored() throws Exception {
+    pipeline = new SentimentPipeline(repository, scorer, 10, 50, MAX_CONCURRENT_CALLS, 100);
+    Comment ok = repository.add("place", null, "great", "a@example.com", "A", 1);
+    Comment failed = repository.add("place", null, "fail", "a@example.com", "A", 2);
+    pipeline.submit(Long.parseLong(ok.getId()), ok.getDescription());
+    pipeline.submit(Long.parseLong(failed.getId()), failed.getDescription());
+
+    awaitProcessed(2);
+
+    Assert.assertEquals(0.9f, repository.get(Arrays.asList(Long.parseLong(ok.getId()))).get(0).getSentiment(), 0f);
+    Assert.assertNull(repository.get(Arrays.asList(Long.parseLong(failed.getId()))).get(0).getSentiment());
+  }
+
+  @Test
+  public void failedWritesStillCountAsProcessed() throws Exception {
+    CommentRepository failing = new InMemoryCommentRepository() {
+      @Override
+      public void updateSentiments(Map<Long, Float> scores) {
+        throw new IllegalStateException("stub failure");
+      }
+    };
+    pipeline = new SentimentPipeline(failing, scorer, 10, 50, MAX_CONCURRENT_CALLS, 100);
+    pipeline.submit(1, "great");
+    pipeline.submit(2, "too crowded");
+
+    awaitProcessed(2);
+  }
+
+  @Test
+  public void fullQueueRejectsInsteadOfBlocking() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    SentimentScorer blocked = text -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      return 0f;
+    };
+    pipeline = new SentimentPipeline(repository, blocked, 1, 0, 1, 1);
+
+    // the worker takes the first comment and blocks on it, the second fills the queue
+    pipeline.submit(1, "a");
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!pipeline.submit(2, "b") && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+
+    Assert.assertFalse(pipeline.submit(3, "c"));
+    release.countDown();
+  }
+
+  @Test
+  public void emptyTextIsNotQueued() {
+    pipeline = new SentimentPipeline(repository, scorer, 10, 50, MAX_CONCURRENT_CALLS, 100);
+
+    Assert.assertFalse(pipeline.submit(1, null));
+    Assert.assertFalse(pipeline.submit(2, "  "));
+  }
+
+  private void awaitProcessed(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+    while (pipeline.processedCount() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    Assert.assertEquals(count, pipeline.processedCount());
+  }
+}
@@ -0,0 +1,69 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class SentimentTasksTest {
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+      new LocalTaskQueueTestConfig()
+          .setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml")
+          .setDisableAutoTaskExecution(true));
+  private final InMemoryCommentRepository repository = new InMemoryCommentRepository();
+  private final SentimentTasks tasks = new SentimentTasks(repository, text -> text.contains("great") ? 0.9f : -0.5f);
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void pendingCommentsAreScoredAndRemoved() throws Exception {
+    int count = SentimentPipeline.BATCH_SIZE + 5;
+    long[] ids = new long[count];
+    for (int i = 0; i < count; i++) {
+      Comment comment = repository.add("place", null, i % 2 == 0 ? "great hike" : "too crowded", "a@example.com", "A", i);
+      ids[i] = Long.parseLong(comment.getId());
+      Assert.assertTrue(tasks.submit(ids[i], comment.getDescription()));
+    }
+
+    Assert.assertEquals(count, tasks.scorePending(Executors.defaultThreadFactory()));
+
+    Assert.assertEquals(0.9f, repository.get(Arrays.asList(ids[0])).get(0).getSentiment(), 0f);
+    Assert.assertEquals(-0.5f, repository.get(Arrays.asList(ids[1])).get(0).getSentiment(), 0f);
+    Assert.assertEquals(0, tasks.scorePending(Executors.defaultThreadFactory()));
+  }
+
+  @Test
+  public void emptyTextIsNotQueued() throws Exception {
+    Assert.assertFalse(tasks.submit(1, "  "));
+    Assert.assertEquals(0, tasks.scorePending(Executors.defaultThreadFactory()));
+  }
+}
@@ -0,0 +1,200 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Measures how long a newly started instance takes to answer its first requests, with and without
+ * the warm-up listener and /_ah/warmup request.
+ *
+ * Every sample starts a new JVM, so class loading, JIT compilation and service setup are paid again.
+ *
+ *   mvn test-compile exec:java -Pcoldstart -Dexec.args="runs=5 repository=datastore"
+ *
+ *   runs         JVMs started per configuration (default 5)
+ *   repository   datastore, memory or log (default datastore)
+ *   seed         comments stored before measuring (default 50)
+ *
+ * For each configuration it prints the median time to start the server, to run the warmup
+ * request, and to answer the first page, auth and comments requests.
+ */
+public final class ColdStartBenchmark {
+
+  /** Measurements printed by each child, in report order. */
+  private static final String[] METRICS = {"startup", "warmup", "page", "auth", "read", "first-total"};
+
+  private ColdStartBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    boolean child = false;
+    for (String arg : args) {
+      if (arg.equals("child")) {
+        child = true;
+        continue;
+      }
+      int eq = arg.indexOf('=');
+      options.put(arg.substring(0, eq), arg.substring(eq + 1));
+    }
+    if (child) {
+      measure(options);
+    } else {
+      compare(options);
+    }
+  }
+
+  /** Start fresh JVMs with and without warm-up and print the medians. */
+  private static void compare(Map<String, String> options) throws Exception {
+    int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+    Map<String, Map<String, List<Double>>> results = new LinkedHashMap<>();
+    for (String warmup : new String[] {"false", "true"}) {
+      results.put(warmup, new LinkedHashMap<>());
+    }
+    for (int run = 0; run < runs; run++) {
+      // alternate configurations so drift on the machine affects both alike
+      for (String warmup : results.keySet()) {
+        Map<String, Double> sample = runChild(options, warmup);
+        for (Map.Entry<String, Double> entry : sample.entrySet()) {
+          results.get(warmup).computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(entry.getValue());
+        }
+      }
+    }
+
+    System.out.printf("%-12s", "median ms");
+    for (String metric : METRICS) {
+      System.out.printf(" %11s", metric);
+    }
+    System.out.println();
+    for (Map.Entry<String, Map<String, List<Double>>> configuration : results.entrySet()) {
+      System.out.printf("%-12s", configuration.getKey().equals("true") ? "warmed" : "cold");
+      for (String metric : METRICS) {
+        List<Double> samples = configuration.getValue().getOrDefault(metric, Collections.emptyList());
+        System.out.printf(" %11s", samples.isEmpty() ? "-" : String.format("%.1f", median(samples)));
+      }
+      System.out.println();
+    }
+  }
+
+  private static Map<String, Double> runChild(Map<String, String> options, String warmup) throws Exception {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(classPath());
+    command.add(ColdStartBenchmark.class.getName());
+    command.add("child");
+    command.add("warmup=" + warmup);
+    command.add("repository=" + options.getOrDefault("repository", "datastore"));
+    command.add("seed=" + options.getOrDefault("seed", "50"));
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+    Map<String, Double> sample = new LinkedHashMap<>();
+    StringBuilder output = new StringBuilder();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        output.append(line).append('\n');
+        if (line.startsWith("RESULT ")) {
+          for (String field : line.substring("RESULT ".length()).split(" ")) {
+            int eq = field.indexOf('=');
+            sample.put(field.substring(0, eq), Double.parseDouble(field.substring(eq + 1)));
+          }
+        }
+      }
+    }
+    if (process.waitFor() != 0 || sample.isEmpty()) {
+      throw new IOException("Benchmark child failed:\n" + output);
+    }
+    return sample;
+  }
+
+  /** Start the servlets, optionally warm them up, and time the first request of each kind. */
+  private static void measure(Map<String, String> options) throws Exception {
+    boolean warmup = Boolean.parseBoolean(options.get("warmup"));
+    LoadTestHarness harness = new LoadTestHarness(options);
+    try {
+      long start = System.nanoTime();
+      harness.start();
+      double startup = millisSince(start);
+      harness.seed(Integer.parseInt(options.getOrDefault("seed", "50")));
+
+      StringBuilder result = new StringBuilder("RESULT startup=").append(startup);
+      if (warmup) {
+        start = System.nanoTime();
+        harness.get("/_ah/warmup");
+        result.append(" warmup=").append(millisSince(start));
+      }
+      double total = 0;
+      String[][] requests = {{"page", "/index.html"}, {"auth", "/auth"}, {"read", "/data?type=load&numComments=0"}};
+      for (String[] request : requests) {
+        start = System.nanoTime();
+        harness.get(request[1]);
+        double millis = millisSince(start);
+        total += millis;
+        result.append(' ').append(request[0]).append('=').append(millis);
+      }
+      result.append(" first-total=").append(total);
+      System.out.println(result);
+    } finally {
+      harness.stop();
+    }
+  }
+
+  /** Class path of this JVM, including what Maven's exec plugin added through a class loader. */
+  private static String classPath() {
+    Set<String> entries = new LinkedHashSet<>();
+    for (ClassLoader loader = Thread.currentThread().getContextClassLoader(); loader != null;
+        loader = loader.getParent()) {
+      if (loader instanceof URLClassLoader) {
+        for (URL url : ((URLClassLoader) loader).getURLs()) {
+          try {
+            entries.add(Paths.get(url.toURI()).toString());
+          } catch (Exception e) {
+            entries.add(url.getPath());
+          }
+        }
+      }
+    }
+    for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      entries.add(entry);
+    }
+    return String.join(File.pathSeparator, entries);
+  }
+
+  private static double millisSince(long startNanos) {
+    return (System.nanoTime() - startNanos) / 1e6;
+  }
+
+  private static double median(List<Double> samples) {
+    List<Double> sorted = new ArrayList<>(samples);
+    Collections.sort(sorted);
+    int middle = sorted.size() / 2;
+    return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+  }
+}
@@ -0,0 +1,501 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.loadtest;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.DatastoreCommentRepository;
+import com.google.sps.data.InMemoryCommentRepository;
+import com.google.sps.data.LogCommentRepository;
+import com.google.sps.data.SentimentPipeline;
+import com.google.sps.data.SentimentQueues;
+import com.google.sps.servlets.AuthServlet;
+import com.google.sps.servlets.CommentIndexesListener;
+import com.google.sps.servlets.DataServlet;
+import com.google.sps.servlets.DeleteDataServlet;
+import com.google.sps.servlets.IndexServlet;
+import com.google.sps.servlets.LocationsServlet;
+import com.google.sps.servlets.SearchServlet;
+import com.google.sps.servlets.WarmupListener;
+import com.google.sps.servlets.WarmupServlet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+
+/**
+ * Load-test harness for the portfolio servlets.
+ *
+ * Starts /data, /auth, /delete-data, /data/search and /data/locations in an embedded Jetty server
+ * backed by the App Engine local Datastore, memcache and user services, replays a weighted mix of
+ * requests from several client threads, and reports latency percentiles, throughput and Datastore
+ * calls per request for each kind of request.
+ *
+ * Options are passed as key=value arguments, for example:
+ *
+ *   mvn test-compile exec:java -Ploadtest -Dexec.args="requests=20000 concurrency=16 repository=log"
+ *
+ *   requests     total number of measured requests (default 10000)
+ *   concurrency  number of client threads (default 8)
+ *   seed         comments stored before measuring (default 500)
+ *   mix          weights per operation (default read:60,append:15,auth:15,post:7,delete:3)
+ *   repository   datastore, memory or log (default datastore)
+ *   webapp       directory index.html is rendered from for page requests (default src/main/webapp)
+ *   warmup       install the warm-up listener and /_ah/warmup handler (default false)
+ */
+public final class LoadTestHarness {
+
+  /** Kinds of request in the replayed mix. */
+  enum Operation { READ, APPEND, AUTH, PAGE, POST, DELETE }
+
+  private static final String USER_EMAIL = "loadtest@example.com";
+
+  private final Map<String, String> options;
+  private final Map<Operation, Integer> mix = new LinkedHashMap<>();
+  private final Map<Operation, List<Long>> latencies = new LinkedHashMap<>();
+  private final Map<Operation, AtomicLong> datastoreCalls = new LinkedHashMap<>();
+  private final ConcurrentLinkedQueue<Long> deletableIds = new ConcurrentLinkedQueue<>();
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+      new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig(), new LocalUserServiceTestConfig())
+      .setEnvIsLoggedIn(true)
+      .setEnvEmail(USER_EMAIL)
+      .setEnvAuthDomain("example.com")
+      .setEnvIsAdmin(true);
+  private ApiProxy.Environment environment;
+  private Server server;
+  private SentimentPipeline sentimentPipeline;
+  private String baseUrl;
+
+  LoadTestHarness(Map<String, String> options) {
+    this.options = options;
+    for (String weight : option("mix", "read:60,append:15,auth:15,post:7,delete:3").split(",")) {
+      String[] parts = weight.split(":");
+      mix.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+    }
+    for (Operation operation : Operation.values()) {
+      latencies.put(operation, Collections.synchronizedList(new ArrayList<>()));
+      datastoreCalls.put(operation, new AtomicLong());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      options.put(arg.substring(0, eq), arg.substring(eq + 1));
+    }
+    LoadTestHarness harness = new LoadTestHarness(options);
+    try {
+      harness.start();
+      harness.seed(Integer.parseInt(harness.option("seed", "500")));
+      harness.run(Integer.parseInt(harness.option("requests", "10000")),
+          Integer.parseInt(harness.option("concurrency", "8")));
+    } finally {
+      harness.stop();
+    }
+  }
+
+  private String option(String name, String defaultValue) {
+    return options.getOrDefault(name, defaultValue);
+  }
+
+  /** Install the local services, count their Datastore calls, and start the servlets. */
+  void start() throws Exception {
+    helper.setUp();
+    environment = ApiProxy.getCurrentEnvironment();
+    installCallCounter();
+
+    CommentRepositories.set(createRepository(option("repository", "datastore")));
+    sentimentPipeline = new SentimentPipeline(CommentRepositories.get(), text -> 0f, 25, 200, 4, 10_000,
+        withEnvironment(Executors.defaultThreadFactory()));
+    SentimentQueues.set(sentimentPipeline);
+
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0);
+    server.addConnector(connector);
+    ServletContextHandler context = new ServletContextHandler();
+    context.addFilter(new FilterHolder(new EnvironmentFilter()), "/*", EnumSet.of(DispatcherType.REQUEST));
+    context.setResourceBase(option("webapp", "src/main/webapp"));
+    context.addServlet(IndexServlet.class, "/index.html");
+    context.addServlet(DataServlet.class, "/data");
+    context.addServlet(AuthServlet.class, "/auth");
+    context.addServlet(DeleteDataServlet.class, "/delete-data");
+    context.addServlet(SearchServlet.class, "/data/search");
+    context.addServlet(LocationsServlet.class, "/data/locations");
+    context.addEventListener(new CommentIndexesListener());
+    if (Boolean.parseBoolean(option("warmup", "false"))) {
+      context.addEventListener(new WarmupListener());
+      context.addServlet(WarmupServlet.class, "/_ah/warmup");
+    }
+    server.setHandler(context);
+    server.start();
+    baseUrl = "http://localhost:" + connector.getLocalPort();
+  }
+
+  void stop() throws Exception {
+    if (server != null) {
+      server.stop();
+    }
+    // the pipeline's threads write to the local datastore, which tearDown discards
+    if (sentimentPipeline != null) {
+      sentimentPipeline.shutdown();
+    }
+    helper.tearDown();
+  }
+
+  private CommentRepository createRepository(String name) throws IOException {
+    switch (name) {
+      case "memory":
+        return new InMemoryCommentRepository();
+      case "log":
+        return new LogCommentRepository(Files.createTempDirectory("comment-log"));
+      default:
+        return new DatastoreCommentRepository();
+    }
+  }
+
+  /** Store comments to read and delete, outside of the measurement. */
+  void seed(int count) throws IOException {
+    CommentRepository repository = CommentRepositories.get();
+    for (int i = 0; i < count; i++) {
+      Comment comment = repository.add("Seed location " + (i % 50), "https://example.com",
+          "Seeded description number " + i, USER_EMAIL, "Seeder", System.currentTimeMillis());
+      deletableIds.add(Long.parseLong(comment.getId()));
+    }
+  }
+
+  /** Replay the mix and print the report. */
+  void run(int requests, int concurrency) throws Exception {
+    ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+    AtomicLong remaining = new AtomicLong(requests);
+    long start = System.nanoTime();
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < concurrency; i++) {
+      long seed = i;
+      futures.add(clients.submit(() -> {
+        Random random = new Random(seed);
+        while (remaining.getAndDecrement() > 0) {
+          perform(pick(random), random);
+        }
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    long elapsed = System.nanoTime() - start;
+    clients.shutdown();
+    report(elapsed);
+  }
+
+  private Operation pick(Random random) {
+    int total = 0;
+    for (int weight : mix.values()) {
+      total += weight;
+    }
+    int roll = random.nextInt(total);
+    for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+      roll -= entry.getValue();
+      if (roll < 0) {
+        return entry.getKey();
+      }
+    }
+    throw new IllegalStateException("Empty mix");
+  }
+
+  private void perform(Operation operation, Random random) throws IOException {
+    if (operation == Operation.DELETE && deletableIds.isEmpty()) {
+      operation = Operation.READ;
+    }
+    long start = System.nanoTime();
+    switch (operation) {
+      case READ:
+        get("/data?type=load&numComments=0");
+        break;
+      case APPEND:
+        get("/data?type=append&numComments=5");
+        break;
+      case AUTH:
+        get("/auth");
+        break;
+      case PAGE:
+        get("/index.html");
+        break;
+      case POST:
+        post("/data", "location=" + encode("Load test " + random.nextInt(50)) + "&link=" + encode("https://example.com")
+            + "&description=" + encode("Posted under load") + "&displayedName=Tester");
+        break;
+      case DELETE:
+        Long id = deletableIds.poll();
+        post("/delete-data?id=" + id, "");
+        break;
+    }
+    latencies.get(operation).add(System.nanoTime() - start);
+  }
+
+  void get(String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+    drain(connection);
+  }
+
+  private void post(String path, String form) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(form.getBytes(StandardCharsets.UTF_8));
+    }
+    drain(connection);
+  }
+
+  /** Read the whole response so the connection can be reused, failing on any error status. */
+  private static void drain(HttpURLConnection connection) throws IOException {
+    int status = connection.getResponseCode();
+    if (status >= 400) {
+      throw new IOException("HTTP " + status + " from " + connection.getURL());
+    }
+    try (InputStream in = connection.getInputStream()) {
+      byte[] buffer = new byte[8192];
+      while (in.read(buffer) >= 0) {
+        // discard
+      }
+    }
+  }
+
+  private static String encode(String value) throws IOException {
+    return URLEncoder.encode(value, "UTF-8");
+  }
+
+  private void report(long elapsedNanos) {
+    long totalRequests = 0;
+    long totalCalls = 0;
+    System.out.printf("%-8s %8s %9s %9s %9s %10s %12s%n",
+        "op", "count", "p50 ms", "p99 ms", "p999 ms", "req/s", "ds calls/req");
+    for (Operation operation : Operation.values()) {
+      List<Long> samples = new ArrayList<>(latencies.get(operation));
+      if (samples.isEmpty()) {
+        continue;
+      }
+      Collections.sort(samples);
+      long calls = datastoreCalls.get(operation).get();
+      totalRequests += samples.size();
+      totalCalls += calls;
+      System.out.printf("%-8s %8d %9.2f %9.2f %9.2f %10.1f %12.2f%n", operation.name().toLowerCase(), samples.size(),
+          percentile(samples, 0.50), percentile(samples, 0.99), percentile(samples, 0.999),
+          samples.size() / (elapsedNanos / 1e9), (double) calls / samples.size());
+    }
+    System.out.printf("%-8s %8d %9s %9s %9s %10.1f %12.2f%n", "total", totalRequests, "", "", "",
+        totalRequests / (elapsedNanos / 1e9), totalRequests == 0 ? 0 : (double) totalCalls / totalRequests);
+  }
+
+  private static double percentile(List<Long> sorted, double p) {
+    int index = (int) Math.min(sorted.size() - 1, Math.ceil(p * sorted.size()) - 1);
+    return sorted.get(Math.max(index, 0)) / 1e6;
+  }
+
+  /** Wrap the local services so every Datastore call is counted against the operation that caused it. */
+  @SuppressWarnings("unchecked")
+  private void installCallCounter() {
+    ApiProxy.Delegate<ApiProxy.Environment> delegate = ApiProxy.getDelegate();
+    Map<Operation, AtomicLong> counts = datastoreCalls;
+    ApiProxy.setDelegate(new ApiProxy.Delegate<ApiProxy.Environment>() {
+      @Override
+      public byte[] makeSyncCall(ApiProxy.Environment env, String service, String method, byte[] request) {
+        count(env, service);
+        return delegate.makeSyncCall(env, service, method, request);
+      }
+
+      @Override
+      public Future<byte[]> makeAsyncCall(ApiProxy.Environment env, String service, String method, byte[] request,
+          ApiProxy.ApiConfig config) {
+        count(env, service);
+        return delegate.makeAsyncCall(env, service, method, request, config);
+      }
+
+      @Override
+      public void log(ApiProxy.Environment env, ApiProxy.LogRecord record) {
+        delegate.log(env, record);
+      }
+
+      @Override
+      public void flushLogs(ApiProxy.Environment env) {
+        delegate.flushLogs(env);
+      }
+
+      @Override
+      public List<Thread> getRequestThreads(ApiProxy.Environment env) {
+        return delegate.getRequestThreads(env);
+      }
+
+      private void count(ApiProxy.Environment env, String service) {
+        if (env instanceof MeasuredEnvironment && service.equals("datastore_v3")) {
+          counts.get(((MeasuredEnvironment) env).operation).incrementAndGet();
+        }
+      }
+    });
+  }
+
+  /** Threads that run with the local App Engine environment installed. */
+  private ThreadFactory withEnvironment(ThreadFactory factory) {
+    return runnable -> {
+      Thread thread = factory.newThread(() -> {
+        ApiProxy.setEnvironmentForCurrentThread(environment);
+        runnable.run();
+      });
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Installs the local App Engine environment on each request thread, tagged with the operation
+   * being served so Datastore calls are attributed to it.
+   */
+  private class EnvironmentFilter implements Filter {
+    @Override
+    public void init(FilterConfig config) {}
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+        throws IOException, ServletException {
+      ApiProxy.setEnvironmentForCurrentThread(new MeasuredEnvironment(environment, operationFor(request)));
+      try {
+        chain.doFilter(request, response);
+      } finally {
+        ApiProxy.clearEnvironmentForCurrentThread();
+      }
+    }
+
+    @Override
+    public void destroy() {}
+  }
+
+  private static Operation operationFor(ServletRequest request) {
+    HttpServletRequest http = (HttpServletRequest) request;
+    String path = http.getServletPath();
+    if (path.equals("/auth")) {
+      return Operation.AUTH;
+    }
+    if (path.equals("/delete-data")) {
+      return Operation.DELETE;
+    }
+    if (path.equals("/index.html")) {
+      return Operation.PAGE;
+    }
+    if (http.getMethod().equals("POST")) {
+      return Operation.POST;
+    }
+    return "append".equals(http.getParameter("type")) ? Operation.APPEND : Operation.READ;
+  }
+
+  /** The local environment of one request, tagged with the operation it serves. */
+  private static class MeasuredEnvironment implements ApiProxy.Environment {
+    private final ApiProxy.Environment base;
+    private final Operation operation;
+
+    MeasuredEnvironment(ApiProxy.Environment base, Operation operation) {
+      this.base = base;
+      this.operation = operation;
+    }
+
+    @Override
+    public String getAppId() {
+      return base.getAppId();
+    }
+
+    @Override
+    public String getModuleId() {
+      return base.getModuleId();
+    }
+
+    @Override
+    public String getVersionId() {
+      return base.getVersionId();
+    }
+
+    @Override
+    public String getEmail() {
+      return base.getEmail();
+    }
+
+    @Override
+    public boolean isLoggedIn() {
+      return base.isLoggedIn();
+    }
+
+    @Override
+    public boolean isAdmin() {
+      return base.isAdmin();
+    }
+
+    @Override
+    public String getAuthDomain() {
+      return base.getAuthDomain();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String getRequestNamespace() {
+      return base.getRequestNamespace();
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+      return base.getAttributes();
+    }
+
+    @Override
+    public long getRemainingMillis() {
+      return base.getRemainingMillis();
+    }
+  }
+}
@@ -0,0 +1,105 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.sps.data.Task;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that exports tasks as newline-delimited JSON, one task per line, in the format
+ * /import-tasks reads.
+ *
+ * Tasks are read in key order in batches, each a separate query resumed from the previous one's
+ * cursor, so no query runs for long and only one batch is held in memory. An export can be split
+ * across requests with limit: when it stops early the last line is {"nextCursor": "..."}, which is
+ * passed back as cursor to continue.
+ */
+@WebServlet("/export-tasks")
+public class ExportTasksServlet extends HttpServlet {
+
+  /** Tasks read per query; the most one query can return in a single batch. */
+  static final int BATCH_SIZE = 500;
+
+  private static final Gson gson = new Gson();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long limit = Long.MAX_VALUE;
+    Cursor cursor = null;
+    try {
+      if (request.getParameter("limit") != null) {
+        limit = Long.parseLong(request.getParameter("limit"));
+        if (limit < 1) {
+          throw new IllegalArgumentException("limit must be positive");
+        }
+      }
+      if (request.getParameter("cursor") != null) {
+        cursor = Cursor.fromWebSafeString(request.getParameter("cursor"));
+      }
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    // key order needs no composite index and gives stable cursors while tasks are added
+    Query query = new Query("Task");
+
+    response.setContentType("application/x-ndjson;charset=UTF-8");
+    PrintWriter out = response.getWriter();
+    long exported = 0;
+    while (exported < limit) {
+      int batchSize = (int) Math.min(BATCH_SIZE, limit - exported);
+      FetchOptions fetchOptions = FetchOptions.Builder.withLimit(batchSize).prefetchSize(batchSize).chunkSize(batchSize);
+      if (cursor != null) {
+        fetchOptions.startCursor(cursor);
+      }
+      QueryResultList<Entity> batch = datastore.prepare(query).asQueryResultList(fetchOptions);
+      for (Entity entity : batch) {
+        long id = entity.getKey().getId();
+        String title = (String) entity.getProperty("title");
+        long timestamp = (long) entity.getProperty("timestamp");
+        out.print(gson.toJson(new Task(id, title, timestamp)));
+        out.print('\n');
+      }
+      out.flush();
+      exported += batch.size();
+      cursor = batch.getCursor();
+      if (batch.size() < batchSize) {
+        return;
+      }
+    }
+
+    // stopped at the limit; more tasks may follow
+    JsonObject next = new JsonObject();
+    next.addProperty("nextCursor", cursor.toWebSafeString());
+    out.print(gson.toJson(next));
+    out.print('\n');
+  }
+}
@@ -0,0 +1,192 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that imports tasks from newline-delimited JSON, one {"title": ..., "timestamp": ...}
+ * object per line, as written by /export-tasks.
+ *
+ * The body is read a line at a time and tasks are stored in batches of BATCH_SIZE, with up to
+ * MAX_PUTS_IN_FLIGHT batch puts running while the next batch is parsed, so memory use does not
+ * depend on the size of the import. A task with an id keeps it, so importing an export again
+ * overwrites the same tasks instead of duplicating them. Those ids are reserved so the automatic
+ * allocator never reuses one; Datastore has no asynchronous call for that, so the reservations run
+ * on request-scoped threads alongside the puts.
+ *
+ * Responds with {"imported": n}. If a line is malformed, the tasks before it stay imported and the
+ * response is a 400 that also names the line.
+ */
+@WebServlet("/import-tasks")
+public class ImportTasksServlet extends HttpServlet {
+
+  /** Entities per put; the most Datastore accepts in one call. */
+  static final int BATCH_SIZE = 500;
+
+  static final int MAX_PUTS_IN_FLIGHT = 4;
+
+  static final int MAX_RESERVATIONS_IN_FLIGHT = 4;
+
+  private static final Gson gson = new Gson();
+
+  /** One line of an import. */
+  private static class TaskLine {
+    Long id;
+    String title;
+    Long timestamp;
+    String nextCursor;
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+    Deque<Future<List<Key>>> inFlight = new ArrayDeque<>();
+    List<Future<?>> reservations = new ArrayList<>();
+    ExecutorService reservers =
+        Executors.newFixedThreadPool(MAX_RESERVATIONS_IN_FLIGHT, ThreadManager.currentRequestThreadFactory());
+    List<Entity> batch = new ArrayList<>(BATCH_SIZE);
+    long stored = 0;
+    String error = null;
+
+    // exports are UTF-8, and without a charset on the request the container would assume ISO-8859-1
+    if (request.getCharacterEncoding() == null) {
+      request.setCharacterEncoding("UTF-8");
+    }
+    BufferedReader reader = request.getReader();
+    long lineNumber = 0;
+    String line;
+    try {
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        Entity entity;
+        try {
+          entity = toEntity(gson.fromJson(line, TaskLine.class));
+        } catch (JsonParseException | IllegalArgumentException e) {
+          error = "line " + lineNumber + ": " + e.getMessage();
+          break;
+        }
+        if (entity == null) {
+          continue;
+        }
+        batch.add(entity);
+        if (batch.size() == BATCH_SIZE) {
+          if (inFlight.size() == MAX_PUTS_IN_FLIGHT) {
+            stored += inFlight.removeFirst().get().size();
+          }
+          reserveIds(batch, reservers, reservations);
+          inFlight.addLast(datastore.put(batch));
+          batch = new ArrayList<>(BATCH_SIZE);
+        }
+      }
+      if (!batch.isEmpty()) {
+        reserveIds(batch, reservers, reservations);
+        inFlight.addLast(datastore.put(batch));
+      }
+      while (!inFlight.isEmpty()) {
+        stored += inFlight.removeFirst().get().size();
+      }
+      for (Future<?> reservation : reservations) {
+        reservation.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while storing tasks", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not store tasks after " + stored + " were imported", e.getCause());
+    } finally {
+      reservers.shutdownNow();
+    }
+
+    JsonObject result = new JsonObject();
+    result.addProperty("imported", stored);
+    if (error != null) {
+      result.addProperty("error", error);
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+    }
+    response.setContentType("application/json;");
+    response.getWriter().println(gson.toJson(result));
+  }
+
+  /**
+   * Reserve the ids a batch keeps, so the automatic id allocator never hands one of them to a task
+   * added later and overwrites the imported task. Only the ids present are reserved: consecutive
+   * ids share one range, and every other id gets a range of its own.
+   */
+  private static void reserveIds(List<Entity> batch, ExecutorService reservers, List<Future<?>> reservations) {
+    List<Long> ids = new ArrayList<>();
+    for (Entity entity : batch) {
+      long id = entity.getKey().getId();
+      if (id != 0) {
+        ids.add(id);
+      }
+    }
+    Collections.sort(ids);
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    int start = 0;
+    for (int i = 1; i <= ids.size(); i++) {
+      if (i == ids.size() || ids.get(i) > ids.get(i - 1) + 1) {
+        // a collision only means some of the ids are already in use, e.g. by an earlier import
+        KeyRange range = new KeyRange(null, "Task", ids.get(start), ids.get(i - 1));
+        reservations.add(reservers.submit(() -> datastore.allocateIdRange(range)));
+        start = i;
+      }
+    }
+  }
+
+  /** Build the entity for a line, or return null for an export's continuation line. */
+  private static Entity toEntity(TaskLine task) {
+    if (task == null) {
+      throw new IllegalArgumentException("expected a task object");
+    }
+    if (task.title == null) {
+      if (task.nextCursor != null) {
+        return null;
+      }
+      throw new IllegalArgumentException("missing title");
+    }
+    Entity entity = task.id == null ? new Entity("Task") : new Entity("Task", task.id);
+    entity.setProperty("title", task.title);
+    entity.setProperty("timestamp", task.timestamp == null ? System.currentTimeMillis() : task.timestamp);
+    return entity;
+  }
+}
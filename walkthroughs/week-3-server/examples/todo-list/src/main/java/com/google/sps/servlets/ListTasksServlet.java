@@ -14,46 +14,108 @@
 
 package com.google.sps.servlets;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultIterator;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import com.google.sps.data.Task;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet responsible for listing tasks. */
+/**
+ * Servlet responsible for listing tasks.
+ *
+ * Without parameters it returns every task as a JSON array. With limit, and optionally the cursor
+ * from the previous page, it returns {"tasks": [...], "cursor": "..."}, where cursor is null on
+ * the last page. Either way tasks are written as Datastore returns them rather than collected
+ * first, so the servlet's memory use does not grow with the number of tasks.
+ */
 @WebServlet("/list-tasks")
 public class ListTasksServlet extends HttpServlet {
 
+  /** Tasks in the batch returned with the query itself, so the first ones are written quickly. */
+  static final int PREFETCH_SIZE = 50;
+
+  /** Tasks fetched per round trip after the first batch, and written between flushes. */
+  static final int CHUNK_SIZE = 200;
+
+  static final int MAX_LIMIT = 500;
+
+  private static final Gson gson = new Gson();
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Integer limit = null;
+    Cursor startCursor = null;
+    try {
+      if (request.getParameter("limit") != null) {
+        limit = Integer.parseInt(request.getParameter("limit"));
+        if (limit < 1 || limit > MAX_LIMIT) {
+          throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+      }
+      if (request.getParameter("cursor") != null) {
+        startCursor = Cursor.fromWebSafeString(request.getParameter("cursor"));
+      }
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+
+    // a page is fetched in one round trip; the full list in large chunks after a quick first batch
+    FetchOptions fetchOptions = limit == null
+        ? FetchOptions.Builder.withPrefetchSize(PREFETCH_SIZE).chunkSize(CHUNK_SIZE)
+        : FetchOptions.Builder.withLimit(limit).prefetchSize(limit).chunkSize(limit);
+    if (startCursor != null) {
+      fetchOptions.startCursor(startCursor);
+    }
+
     Query query = new Query("Task").addSort("timestamp", SortDirection.DESCENDING);
 
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     PreparedQuery results = datastore.prepare(query);
+    QueryResultIterator<Entity> entities = results.asQueryResultIterator(fetchOptions);
 
-    List<Task> tasks = new ArrayList<>();
-    for (Entity entity : results.asIterable()) {
+    response.setContentType("application/json;");
+    JsonWriter json = new JsonWriter(response.getWriter());
+    if (limit != null) {
+      json.beginObject().name("tasks");
+    }
+    json.beginArray();
+    int written = 0;
+    while (entities.hasNext()) {
+      Entity entity = entities.next();
       long id = entity.getKey().getId();
       String title = (String) entity.getProperty("title");
       long timestamp = (long) entity.getProperty("timestamp");
 
-      Task task = new Task(id, title, timestamp);
-      tasks.add(task);
+      gson.toJson(new Task(id, title, timestamp), Task.class, json);
+      if (++written % CHUNK_SIZE == 0) {
+        json.flush();
+      }
     }
-
-    Gson gson = new Gson();
-
-    response.setContentType("application/json;");
-    response.getWriter().println(gson.toJson(tasks));
+    json.endArray();
+    if (limit != null) {
+      // a full page may be followed by more tasks
+      Cursor next = written == limit ? entities.getCursor() : null;
+      json.name("cursor");
+      if (next == null) {
+        json.nullValue();
+      } else {
+        json.value(next.toWebSafeString());
+      }
+      json.endObject();
+    }
+    json.flush();
   }
 }
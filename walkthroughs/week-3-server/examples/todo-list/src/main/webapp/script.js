@@ -12,13 +12,26 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
-/** Fetches tasks from the server and adds them to the DOM. */
-function loadTasks() {
-  fetch('/list-tasks').then(response => response.json()).then((tasks) => {
+/** Number of tasks requested from the server at a time. */
+const TASKS_PER_PAGE = 100;
+
+/**
+ * Fetches tasks from the server a page at a time and adds each page to the DOM as it arrives.
+ * @param {?string} cursor where the previous page ended, or null for the first page
+ */
+function loadTasks(cursor = null) {
+  const params = new URLSearchParams({limit: TASKS_PER_PAGE});
+  if (cursor) {
+    params.append('cursor', cursor);
+  }
+  fetch('/list-tasks?' + params).then(response => response.json()).then((page) => {
     const taskListElement = document.getElementById('task-list');
-    tasks.forEach((task) => {
+    page.tasks.forEach((task) => {
       taskListElement.appendChild(createTaskElement(task));
     })
+    if (page.cursor) {
+      loadTasks(page.cursor);
+    }
   });
 }
 
@@ -0,0 +1,98 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity ring buffer of the most recent shouts, safe for concurrent use without locks.
+ *
+ * Every shout gets the next sequence number and overwrites the slot of the shout capacity places
+ * before it. A writer claims its number, fills its slot, then publishes the number once every
+ * earlier writer has published theirs. Readers take the published number and walk back through the
+ * slots, stopping at the first one a newer writer has already reused, so they never wait for a
+ * writer and writers never wait for them.
+ */
+public final class RecentShouts {
+
+  /** One rendered shout. */
+  public static final class Shout {
+    private final long sequence;
+    private final long id;
+    private final long timestamp;
+    private final byte[] html;
+
+    Shout(long sequence, long id, long timestamp, byte[] html) {
+      this.sequence = sequence;
+      this.id = id;
+      this.timestamp = timestamp;
+      this.html = html;
+    }
+
+    /** Id of the shout's entity. */
+    public long getId() {
+      return this.id;
+    }
+
+    public long getTimestamp() {
+      return this.timestamp;
+    }
+
+    public byte[] getHtml() {
+      return this.html;
+    }
+  }
+
+  private final AtomicReferenceArray<Shout> slots;
+  private final AtomicLong claimed = new AtomicLong(-1);
+  private final AtomicLong published = new AtomicLong(-1);
+
+  public RecentShouts(int capacity) {
+    this.slots = new AtomicReferenceArray<>(capacity);
+  }
+
+  public int capacity() {
+    return slots.length();
+  }
+
+  /** Add a shout newer than every shout already added. */
+  public void append(long id, long timestamp, byte[] html) {
+    long sequence = claimed.incrementAndGet();
+    slots.set((int) (sequence % slots.length()), new Shout(sequence, id, timestamp, html));
+    // publish in sequence order, so a published number means every slot up to it is filled
+    while (!published.compareAndSet(sequence - 1, sequence)) {
+      Thread.yield();
+    }
+  }
+
+  /** Get the shouts published so far, newest first, at most capacity of them. */
+  public List<Shout> snapshot() {
+    long newest = published.get();
+    long oldest = Math.max(0, newest - slots.length() + 1);
+    List<Shout> shouts = new ArrayList<>((int) (newest - oldest + 1));
+    for (long sequence = newest; sequence >= oldest; sequence--) {
+      Shout shout = slots.get((int) (sequence % slots.length()));
+      if (shout == null || shout.sequence != sequence) {
+        // overwritten by a writer that wrapped around while we were reading
+        break;
+      }
+      shouts.add(shout);
+    }
+    return shouts;
+  }
+}
@@ -17,53 +17,168 @@ package com.google.sps.servlets;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.RecentShouts;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+/**
+ * Shoutbox page. The newest RECENT_CAPACITY messages are kept rendered as bytes in a lock-free
+ * ring buffer, so only the greeting or login link is rendered per request; older messages are
+ * read from Datastore a page at a time with ?before=timestamp-id.
+ *
+ * A counter in memcache is bumped by every post, on any instance, after the message is stored. The
+ * buffer is reused while the counter is unchanged, appended to when this instance made the only post
+ * since, and refilled from Datastore, with a query bounded by the buffer's capacity, otherwise.
+ * Messages share one parent entity so these queries are strongly consistent: a refill sees every
+ * message whose post bumped the counter before the refill read it. Messages stored before they had
+ * a parent are moved under it once, when an instance starts.
+ */
 @WebServlet("/shoutbox")
 public class ShoutboxServlet extends HttpServlet {
 
+  static final int RECENT_CAPACITY = 300;
+  static final int OLDER_PAGE_SIZE = 50;
+
+  private static final String VERSION_KEY = "shoutbox-version";
+  private static final Key PARENT = KeyFactory.createKey("Shoutbox", "default");
+  /** A cross-group transaction spans at most 25 entity groups, one of which is PARENT. */
+  private static final int MIGRATION_BATCH_SIZE = 24;
+  private static final byte[] LIST_START = "<ul>\n".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] LIST_END = "</ul>\n".getBytes(StandardCharsets.UTF_8);
+
+  /** The recent messages and the counter value they are current for; swapped whole when the counter moves. */
+  private static final class Recent {
+    final RecentShouts shouts;
+    final long version;
+
+    Recent(RecentShouts shouts, long version) {
+      this.shouts = shouts;
+      this.version = version;
+    }
+  }
+
+  /**
+   * A position in the newest-first message order: older than every message with a later timestamp,
+   * or the same timestamp and a higher id.
+   */
+  private static final class Before {
+    final long timestamp;
+    final long id;
+
+    Before(long timestamp, long id) {
+      this.timestamp = timestamp;
+      this.id = id;
+    }
+
+    /** Parse timestamp-id as written by toString; a bare timestamp means before all of its messages. */
+    static Before parse(String param) {
+      int dash = param.indexOf('-', 1);
+      if (dash < 0) {
+        return new Before(Long.parseLong(param), 0);
+      }
+      return new Before(Long.parseLong(param.substring(0, dash)), Long.parseLong(param.substring(dash + 1)));
+    }
+
+    @Override
+    public String toString() {
+      return timestamp + "-" + id;
+    }
+  }
+
+  /**
+   * Read without locking. Readers refill outside any lock and swap the new buffer in only if it is
+   * newer; writers append and advance the version with compare-and-set, so neither waits on the other.
+   */
+  private static final AtomicReference<Recent> recent = new AtomicReference<>();
+
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  @Override
+  public void init() {
+    migrateParentlessMessages();
+    Long version = currentVersion();
+    if (version != null) {
+      install(load(version));
+    }
+  }
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    response.setContentType("text/html;");
-    PrintWriter out = response.getWriter();
-    out.println("<h1>Shoutbox</h1>");
+    Before before;
+    try {
+      before = request.getParameter("before") == null ? null : Before.parse(request.getParameter("before"));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid before: " + request.getParameter("before"));
+      return;
+    }
+
+    StringBuilder header = new StringBuilder();
+    header.append("<h1>Shoutbox</h1>\n");
 
     // Only logged-in users can see the form
     UserService userService = UserServiceFactory.getUserService();
     if (userService.isUserLoggedIn()) {
-      out.println("<p>Hello " + userService.getCurrentUser().getEmail() + "!</p>");
-      out.println("<p>Type a message and click submit:</p>");
-      out.println("<form method=\"POST\" action=\"/shoutbox\">");
-      out.println("<textarea name=\"text\"></textarea>");
-      out.println("<br/>");
-      out.println("<button>Submit</button>");
-      out.println("</form>");
+      header.append("<p>Hello " + userService.getCurrentUser().getEmail() + "!</p>\n");
+      header.append("<p>Type a message and click submit:</p>\n");
+      header.append("<form method=\"POST\" action=\"/shoutbox\">\n");
+      header.append("<textarea name=\"text\"></textarea>\n");
+      header.append("<br/>\n");
+      header.append("<button>Submit</button>\n");
+      header.append("</form>\n");
     } else {
       String loginUrl = userService.createLoginURL("/shoutbox");
-      out.println("<p>Login <a href=\"" + loginUrl + "\">here</a>.</p>");
+      header.append("<p>Login <a href=\"" + loginUrl + "\">here</a>.</p>\n");
     }
 
     // Everybody can see the messages
-    out.println("<ul>");
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Query query = new Query("Message").addSort("timestamp", SortDirection.DESCENDING);
-    PreparedQuery results = datastore.prepare(query);
-    for (Entity entity : results.asIterable()) {
-      String text = (String) entity.getProperty("text");
-      String email = (String) entity.getProperty("email");
-      out.println("<li>" + email + ": " + text + "</li>");
+    List<RecentShouts.Shout> messages;
+    boolean mayHaveOlder;
+    if (before == null) {
+      RecentShouts shouts = recentShouts();
+      messages = shouts.snapshot();
+      mayHaveOlder = messages.size() == shouts.capacity();
+    } else {
+      messages = query(before, OLDER_PAGE_SIZE).snapshot();
+      mayHaveOlder = messages.size() == OLDER_PAGE_SIZE;
+    }
+
+    response.setContentType("text/html;charset=UTF-8");
+    OutputStream out = response.getOutputStream();
+    out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+    out.write(LIST_START);
+    for (RecentShouts.Shout message : messages) {
+      out.write(message.getHtml());
+    }
+    out.write(LIST_END);
+    if (mayHaveOlder && !messages.isEmpty()) {
+      RecentShouts.Shout oldest = messages.get(messages.size() - 1);
+      Before next = new Before(oldest.getTimestamp(), oldest.getId());
+      out.write(("<p><a href=\"/shoutbox?before=" + next + "\">Older messages</a></p>\n")
+          .getBytes(StandardCharsets.UTF_8));
     }
-    out.println("</ul>");
   }
 
   @Override
@@ -79,15 +194,176 @@ public class ShoutboxServlet extends HttpServlet {
 
     String text = request.getParameter("text");
     String email = userService.getCurrentUser().getEmail();
+    long timestamp = System.currentTimeMillis();
 
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Entity messageEntity = new Entity("Message");
+    Entity messageEntity = new Entity("Message", PARENT);
     messageEntity.setProperty("text", text);
     messageEntity.setProperty("email", email);
-    messageEntity.setProperty("timestamp", System.currentTimeMillis());
-    datastore.put(messageEntity);
+    messageEntity.setProperty("timestamp", timestamp);
+    long id = datastore.put(messageEntity).getId();
+
+    // if nobody else posted since the buffer was filled, this message is the only one it can lack;
+    // a refill that ran after the put already has it
+    Long version = memcache.increment(VERSION_KEY, 1L, System.currentTimeMillis());
+    while (true) {
+      Recent current = recent.get();
+      Recent next;
+      if (version == null || current == null || current.version < version - 1) {
+        next = null;
+      } else if (current.version >= version) {
+        // the buffer was refilled from Datastore after this post was counted
+        break;
+      } else {
+        List<RecentShouts.Shout> shouts = current.shouts.snapshot();
+        if (contains(shouts, id)) {
+          next = new Recent(current.shouts, version);
+        } else if (shouts.isEmpty() || isNewer(timestamp, id, shouts.get(0))) {
+          // if the swap below fails, the retry finds the message here rather than appending it again
+          current.shouts.append(id, timestamp, render(email, text));
+          next = new Recent(current.shouts, version);
+        } else {
+          // a refill picked up a later post but not this one, so appending would misorder them
+          next = null;
+        }
+      }
+      if (recent.compareAndSet(current, next)) {
+        break;
+      }
+    }
 
     // Redirect to /shoutbox. The request will be routed to the doGet() function above.
     response.sendRedirect("/shoutbox");
   }
+
+  /** Get the recent messages, refilling them if anyone posted since they were loaded. */
+  private RecentShouts recentShouts() {
+    Long version = currentVersion();
+    Recent current = recent.get();
+    if (version != null && current != null && current.version >= version) {
+      return current.shouts;
+    }
+    if (version == null) {
+      return query(null, RECENT_CAPACITY);
+    }
+    return install(load(version)).shouts;
+  }
+
+  /** Swap a refilled buffer in unless a newer one already is, and return whichever is current. */
+  private static Recent install(Recent loaded) {
+    return recent.accumulateAndGet(loaded,
+        (current, candidate) -> current == null || current.version < candidate.version ? candidate : current);
+  }
+
+  private static boolean isNewer(long timestamp, long id, RecentShouts.Shout than) {
+    return timestamp > than.getTimestamp() || (timestamp == than.getTimestamp() && id > than.getId());
+  }
+
+  private static boolean contains(List<RecentShouts.Shout> shouts, long id) {
+    for (RecentShouts.Shout shout : shouts) {
+      if (shout.getId() == id) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Recent load(long version) {
+    return new Recent(query(null, RECENT_CAPACITY), version);
+  }
+
+  /** Read up to limit messages, newest first from a position or from the newest, into a buffer. */
+  private static RecentShouts query(Before before, int limit) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Query query = new Query("Message").setAncestor(PARENT)
+        .addSort("timestamp", SortDirection.DESCENDING)
+        .addSort(Entity.KEY_RESERVED_PROPERTY, SortDirection.DESCENDING);
+    if (before != null) {
+      query.setFilter(new FilterPredicate("timestamp", FilterOperator.LESS_THAN_OR_EQUAL, before.timestamp));
+    }
+    PreparedQuery results = datastore.prepare(query);
+    List<Entity> entities = new ArrayList<>(limit);
+    for (Entity entity : results.asIterable(FetchOptions.Builder.withChunkSize(limit))) {
+      // messages sharing the position's timestamp come first, and are skipped up to its id
+      if (before != null && (long) entity.getProperty("timestamp") == before.timestamp
+          && entity.getKey().getId() >= before.id) {
+        continue;
+      }
+      entities.add(entity);
+      if (entities.size() == limit) {
+        break;
+      }
+    }
+
+    // the buffer takes messages oldest first
+    RecentShouts shouts = new RecentShouts(limit);
+    for (int i = entities.size() - 1; i >= 0; i--) {
+      Entity entity = entities.get(i);
+      String text = (String) entity.getProperty("text");
+      String email = (String) entity.getProperty("email");
+      shouts.append(entity.getKey().getId(), (long) entity.getProperty("timestamp"), render(email, text));
+    }
+    return shouts;
+  }
+
+  /**
+   * Move messages stored without a parent under PARENT, so the ancestor queries see them, and mark
+   * PARENT once none are left. Each message is moved in a transaction that reads it first, so
+   * instances starting together cannot both copy it.
+   */
+  private void migrateParentlessMessages() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    try {
+      if (datastore.get(PARENT).hasProperty("migrated")) {
+        return;
+      }
+    } catch (EntityNotFoundException e) {
+      // not migrated yet
+    }
+
+    List<Key> parentless = new ArrayList<>();
+    for (Entity entity : datastore.prepare(new Query("Message").setKeysOnly()).asIterable()) {
+      if (entity.getKey().getParent() == null) {
+        parentless.add(entity.getKey());
+      }
+    }
+    for (int from = 0; from < parentless.size(); from += MIGRATION_BATCH_SIZE) {
+      List<Key> batch = parentless.subList(from, Math.min(parentless.size(), from + MIGRATION_BATCH_SIZE));
+      Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        List<Entity> moved = new ArrayList<>();
+        List<Key> found = new ArrayList<>();
+        for (Entity old : datastore.get(txn, batch).values()) {
+          Entity message = new Entity("Message", PARENT);
+          message.setPropertiesFrom(old);
+          moved.add(message);
+          found.add(old.getKey());
+        }
+        datastore.put(txn, moved);
+        datastore.delete(txn, found);
+        txn.commit();
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+
+    Entity marker = new Entity(PARENT);
+    marker.setProperty("migrated", true);
+    datastore.put(marker);
+    if (!parentless.isEmpty()) {
+      // buffers filled before the move lack the moved messages
+      memcache.increment(VERSION_KEY, 1L, System.currentTimeMillis());
+    }
+  }
+
+  /** Get the post counter; an evicted counter restarts from the current time, past any earlier value. */
+  private Long currentVersion() {
+    return memcache.increment(VERSION_KEY, 0L, System.currentTimeMillis());
+  }
+
+  private static byte[] render(String email, String text) {
+    return ("<li>" + email + ": " + text + "</li>\n").getBytes(StandardCharsets.UTF_8);
+  }
 }
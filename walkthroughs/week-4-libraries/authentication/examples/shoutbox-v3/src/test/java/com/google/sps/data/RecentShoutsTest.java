@@ -0,0 +1,151 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class RecentShoutsTest {
+  private static final int CAPACITY = 64;
+  private static final int WRITERS = 4;
+  private static final int READERS = 4;
+  private static final int SHOUTS_PER_WRITER = 20_000;
+
+  @Test
+  public void keepsNewestShoutsNewestFirst() {
+    RecentShouts shouts = new RecentShouts(3);
+    for (long id = 1; id <= 5; id++) {
+      shouts.append(id, id * 10, html(id));
+    }
+
+    List<RecentShouts.Shout> snapshot = shouts.snapshot();
+
+    Assert.assertEquals(3, snapshot.size());
+    Assert.assertEquals(5, snapshot.get(0).getId());
+    Assert.assertEquals(4, snapshot.get(1).getId());
+    Assert.assertEquals(3, snapshot.get(2).getId());
+    Assert.assertEquals(50, snapshot.get(0).getTimestamp());
+  }
+
+  @Test
+  public void readersSeeConsistentSnapshotsWhileWritersAppend() throws Exception {
+    RecentShouts shouts = new RecentShouts(CAPACITY);
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicBoolean writing = new AtomicBoolean(true);
+    AtomicReference<String> failure = new AtomicReference<>();
+
+    List<Thread> writers = new ArrayList<>();
+    for (int w = 0; w < WRITERS; w++) {
+      long writer = w;
+      writers.add(new Thread(() -> {
+        await(start);
+        for (int i = 0; i < SHOUTS_PER_WRITER; i++) {
+          long id = writer * SHOUTS_PER_WRITER + i;
+          shouts.append(id, id, html(id));
+        }
+      }));
+    }
+    List<Thread> readers = new ArrayList<>();
+    for (int r = 0; r < READERS; r++) {
+      readers.add(new Thread(() -> {
+        await(start);
+        while (writing.get() && failure.get() == null) {
+          String problem = checkSnapshot(shouts.snapshot());
+          if (problem != null) {
+            failure.compareAndSet(null, problem);
+          }
+        }
+      }));
+    }
+    for (Thread thread : writers) {
+      thread.start();
+    }
+    for (Thread thread : readers) {
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : writers) {
+      thread.join();
+    }
+    writing.set(false);
+    for (Thread thread : readers) {
+      thread.join();
+    }
+
+    Assert.assertNull(failure.get());
+    List<RecentShouts.Shout> last = shouts.snapshot();
+    Assert.assertEquals(CAPACITY, last.size());
+    Assert.assertNull(checkSnapshot(last));
+    // each writer's last shout was published before it finished, so the newest one is among them
+    Set<Long> lastIds = new HashSet<>();
+    for (int w = 0; w < WRITERS; w++) {
+      lastIds.add((long) w * SHOUTS_PER_WRITER + SHOUTS_PER_WRITER - 1);
+    }
+    Assert.assertTrue(lastIds.contains(last.get(0).getId()));
+  }
+
+  /**
+   * Describe what is wrong with a snapshot, or return null: it must fit the buffer, hold each shout
+   * once with its own html, and list each writer's shouts newest first.
+   */
+  private static String checkSnapshot(List<RecentShouts.Shout> snapshot) {
+    if (snapshot.size() > CAPACITY) {
+      return "snapshot of " + snapshot.size() + " shouts";
+    }
+    Set<Long> seen = new HashSet<>();
+    long[] previous = new long[WRITERS];
+    Arrays.fill(previous, Long.MAX_VALUE);
+    for (RecentShouts.Shout shout : snapshot) {
+      long id = shout.getId();
+      if (!seen.add(id)) {
+        return "shout " + id + " listed twice";
+      }
+      if (!new String(shout.getHtml(), StandardCharsets.UTF_8).equals(Long.toString(id))) {
+        return "shout " + id + " has the html of another shout";
+      }
+      int writer = (int) (id / SHOUTS_PER_WRITER);
+      if (id >= previous[writer]) {
+        return "shout " + id + " listed after the older " + previous[writer];
+      }
+      previous[writer] = id;
+    }
+    return null;
+  }
+
+  private static byte[] html(long id) {
+    return Long.toString(id).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
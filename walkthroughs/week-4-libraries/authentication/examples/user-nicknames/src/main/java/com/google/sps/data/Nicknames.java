@@ -0,0 +1,171 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Nicknames stored as UserInfo entities keyed by user id.
+ *
+ * Lookups get the entity by key, which is strongly consistent and needs no index, and keep the
+ * result, including the absence of a nickname, in a bounded per-instance cache. Writes through this
+ * class update the cache immediately; a nickname changed on another instance is seen here once the
+ * cached entry expires.
+ *
+ * Pages that show many users resolve them together with getAll(), which reads every uncached
+ * nickname with one batch get rather than one lookup per user.
+ */
+public final class Nicknames {
+  static final String KIND = "UserInfo";
+  static final int MAX_ENTRIES = 10_000;
+  static final long TTL_MILLIS = 60_000;
+
+  /** Most keys Datastore accepts in one batch get. */
+  static final int MAX_BATCH = 1000;
+
+  /** A looked up nickname, null if the user has not set one, and when it stops being trusted. */
+  private static class Entry {
+    private final String nickname;
+    private final long expiry;
+
+    Entry(String nickname, long expiry) {
+      this.nickname = nickname;
+      this.expiry = expiry;
+    }
+  }
+
+  /** Least recently used entries are dropped first once the cache is full. */
+  private static final Map<String, Entry> cache =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      };
+
+  /** Counts writes made on this instance, so a lookup racing a write does not cache the older value. */
+  private static long writes;
+
+  private Nicknames() {}
+
+  /** Returns the nickname of the user with id, or null if the user has not set a nickname. */
+  public static String get(String id) {
+    long now = System.currentTimeMillis();
+    long writesBefore;
+    synchronized (cache) {
+      Entry entry = cache.get(id);
+      if (entry != null && entry.expiry > now) {
+        return entry.nickname;
+      }
+      writesBefore = writes;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    String nickname;
+    try {
+      nickname = (String) datastore.get(key(id)).getProperty("nickname");
+    } catch (EntityNotFoundException e) {
+      nickname = null;
+    }
+    synchronized (cache) {
+      if (writes == writesBefore) {
+        cache.put(id, new Entry(nickname, now + TTL_MILLIS));
+      }
+    }
+    return nickname;
+  }
+
+  /**
+   * Returns the nicknames of the users with the given ids, keyed by id. Users who have not set a
+   * nickname are left out. Repeated ids are looked up once.
+   */
+  public static Map<String, String> getAll(Iterable<String> ids) {
+    long now = System.currentTimeMillis();
+    Set<String> unique = new LinkedHashSet<>();
+    for (String id : ids) {
+      unique.add(id);
+    }
+
+    Map<String, String> nicknames = new HashMap<>();
+    List<Key> misses = new ArrayList<>();
+    long writesBefore;
+    synchronized (cache) {
+      for (String id : unique) {
+        Entry entry = cache.get(id);
+        if (entry != null && entry.expiry > now) {
+          if (entry.nickname != null) {
+            nicknames.put(id, entry.nickname);
+          }
+        } else {
+          misses.add(key(id));
+        }
+      }
+      writesBefore = writes;
+    }
+    if (misses.isEmpty()) {
+      return nicknames;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Map<String, String> fetched = new HashMap<>();
+    for (int start = 0; start < misses.size(); start += MAX_BATCH) {
+      List<Key> batch = misses.subList(start, Math.min(start + MAX_BATCH, misses.size()));
+      for (Entity entity : datastore.get(batch).values()) {
+        fetched.put(entity.getKey().getName(), (String) entity.getProperty("nickname"));
+      }
+    }
+    nicknames.putAll(fetched);
+
+    // ids missing from the batch result have no nickname, which is cached too
+    synchronized (cache) {
+      if (writes == writesBefore) {
+        for (Key key : misses) {
+          cache.put(key.getName(), new Entry(fetched.get(key.getName()), now + TTL_MILLIS));
+        }
+      }
+    }
+    return nicknames;
+  }
+
+  /** Store the nickname of the user with id, replacing any earlier one. */
+  public static void set(String id, String nickname) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity entity = new Entity(key(id));
+    entity.setProperty("id", id);
+    entity.setProperty("nickname", nickname);
+    // The put() function automatically inserts new data or updates existing data based on ID
+    datastore.put(entity);
+    synchronized (cache) {
+      writes++;
+      cache.put(id, new Entry(nickname, System.currentTimeMillis() + TTL_MILLIS));
+    }
+  }
+
+  static Key key(String id) {
+    return KeyFactory.createKey(KIND, id);
+  }
+}
@@ -0,0 +1,68 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.Nicknames;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Resolves many user ids to nicknames in one request, for pages that list what several users
+ * wrote. Takes ids as repeated id parameters, comma separated ids parameters, or both, and returns
+ * a JSON object mapping each id with a nickname to it.
+ */
+@WebServlet("/nicknames")
+public class NicknamesServlet extends HttpServlet {
+
+  static final int MAX_IDS = 1000;
+
+  private static final Gson gson = new Gson();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    List<String> ids = new ArrayList<>();
+    String[] idParams = request.getParameterValues("id");
+    if (idParams != null) {
+      for (String id : idParams) {
+        if (!id.isEmpty()) {
+          ids.add(id);
+        }
+      }
+    }
+    String idsParam = request.getParameter("ids");
+    if (idsParam != null) {
+      for (String id : idsParam.split(",")) {
+        if (!id.isEmpty()) {
+          ids.add(id);
+        }
+      }
+    }
+    if (ids.size() > MAX_IDS) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "At most " + MAX_IDS + " ids per request");
+      return;
+    }
+
+    Map<String, String> nicknames = Nicknames.getAll(ids);
+    response.setContentType("application/json;");
+    response.getWriter().println(gson.toJson(nicknames));
+  }
+}
@@ -0,0 +1,181 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Loads a headerless CSV file of numbers into one double[] per column.
+ *
+ * The bytes are parsed in place, from a memory-mapped file where there is one, without creating a
+ * String per line or field. Plain decimals with up to 15 significant digits, which is what data
+ * files hold, are converted with one exact division and so give the same double as
+ * Double.parseDouble; anything else is handed to Double.parseDouble. Columns after the requested
+ * ones and blank lines are skipped.
+ */
+public final class NumericCsv {
+
+  /** Powers of ten a double holds exactly, so dividing by one rounds correctly. */
+  private static final double[] POWERS_OF_TEN = new double[23];
+
+  /** Digits that always fit in the 53 bit mantissa of a double. */
+  private static final int MAX_EXACT_DIGITS = 15;
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private NumericCsv() {}
+
+  /** Maps a file and parses the first columns of every line. */
+  public static double[][] load(Path path, int columns) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), columns);
+    }
+  }
+
+  /** Reads a stream, for resources that are not plain files, and parses the first columns of every line. */
+  public static double[][] load(InputStream in, int columns) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+    byte[] buffer = new byte[1 << 16];
+    for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+      bytes.write(buffer, 0, read);
+    }
+    return parse(ByteBuffer.wrap(bytes.toByteArray()), columns);
+  }
+
+  /** Parses the first columns of every line between the buffer's position and limit. */
+  public static double[][] parse(ByteBuffer bytes, int columns) {
+    int capacity = 1024;
+    double[][] values = new double[columns][capacity];
+    int rows = 0;
+    int line = 1;
+    int limit = bytes.limit();
+    int i = bytes.position();
+
+    while (i < limit) {
+      byte b = bytes.get(i);
+      if (b == '\n' || b == '\r') {
+        if (b == '\n') {
+          line++;
+        }
+        i++;
+        continue;
+      }
+
+      if (rows == capacity) {
+        capacity *= 2;
+        for (int column = 0; column < columns; column++) {
+          values[column] = Arrays.copyOf(values[column], capacity);
+        }
+      }
+      for (int column = 0; column < columns; column++) {
+        int end = i;
+        while (end < limit && bytes.get(end) != ',' && bytes.get(end) != '\n' && bytes.get(end) != '\r') {
+          end++;
+        }
+        values[column][rows] = parseDouble(bytes, i, end, line);
+        if (column < columns - 1) {
+          if (end >= limit || bytes.get(end) != ',') {
+            throw new IllegalArgumentException("Line " + line + " has fewer than " + columns + " columns");
+          }
+          end++;
+        }
+        i = end;
+      }
+      while (i < limit && bytes.get(i) != '\n' && bytes.get(i) != '\r') {
+        i++;
+      }
+      rows++;
+    }
+
+    for (int column = 0; column < columns; column++) {
+      values[column] = Arrays.copyOf(values[column], rows);
+    }
+    return values;
+  }
+
+  /** Parses the field in [start, end), trimming spaces. */
+  static double parseDouble(ByteBuffer bytes, int start, int end, int line) {
+    while (start < end && bytes.get(start) == ' ') {
+      start++;
+    }
+    while (end > start && bytes.get(end - 1) == ' ') {
+      end--;
+    }
+
+    int i = start;
+    boolean negative = false;
+    if (i < end && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+      negative = bytes.get(i) == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = 0;
+    boolean seenPoint = false;
+    boolean seenDigit = false;
+    for (; i < end; i++) {
+      byte b = bytes.get(i);
+      if (b >= '0' && b <= '9') {
+        seenDigit = true;
+        if (mantissa != 0 || b != '0') {
+          digits++;
+        }
+        mantissa = mantissa * 10 + (b - '0');
+        if (seenPoint) {
+          fractionDigits++;
+        }
+        if (digits > MAX_EXACT_DIGITS) {
+          return parseSlowly(bytes, start, end, line);
+        }
+      } else if (b == '.' && !seenPoint) {
+        seenPoint = true;
+      } else {
+        // exponents, NaN, Infinity and anything malformed
+        return parseSlowly(bytes, start, end, line);
+      }
+    }
+    if (!seenDigit || fractionDigits >= POWERS_OF_TEN.length) {
+      return parseSlowly(bytes, start, end, line);
+    }
+    double value = mantissa / POWERS_OF_TEN[fractionDigits];
+    return negative ? -value : value;
+  }
+
+  private static double parseSlowly(ByteBuffer bytes, int start, int end, int line) {
+    byte[] field = new byte[end - start];
+    for (int i = 0; i < field.length; i++) {
+      field[i] = bytes.get(start + i);
+    }
+    String text = new String(field, StandardCharsets.UTF_8);
+    try {
+      return Double.parseDouble(text);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Line " + line + " has a field that is not a number: " + text, e);
+    }
+  }
+}
@@ -15,9 +15,14 @@
 package com.google.sps.servlets;
 
 import com.google.gson.Gson;
+import com.google.sps.data.NumericCsv;
+import com.google.sps.data.ResponseSnapshot;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.LinkedHashMap;
-import java.util.Scanner;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -28,28 +33,38 @@ import javax.servlet.http.HttpServletResponse;
 public class BigfootDataServlet extends HttpServlet {
 
   private LinkedHashMap<Integer, Integer> bigfootSightings = new LinkedHashMap<>();
+  private ResponseSnapshot snapshot;
 
   @Override
-  public void init() {
-    Scanner scanner = new Scanner(getServletContext().getResourceAsStream(
-        "/WEB-INF/bigfoot-sightings-by-year.csv"));
-    while (scanner.hasNextLine()) {
-      String line = scanner.nextLine();
-      String[] cells = line.split(",");
+  public void init() throws ServletException {
+    double[][] columns = loadColumns("/WEB-INF/bigfoot-sightings-by-year.csv", 2);
+    double[] years = columns[0];
+    double[] sightings = columns[1];
+    for (int i = 0; i < years.length; i++) {
+      bigfootSightings.put((int) years[i], (int) sightings[i]);
+    }
 
-      Integer year = Integer.valueOf(cells[0]);
-      Integer sightings = Integer.valueOf(cells[1]);
+    // the data never changes, so serialize and compress it once rather than on every request
+    snapshot = ResponseSnapshot.of(0, "application/json", new Gson().toJson(bigfootSightings) + "\n");
+  }
 
-      bigfootSightings.put(year, sightings);
+  /** Loads a CSV file from the webapp, mapping it when the webapp is unpacked on disk. */
+  private double[][] loadColumns(String resource, int columns) throws ServletException {
+    try {
+      String path = getServletContext().getRealPath(resource);
+      if (path != null && Files.isRegularFile(Paths.get(path))) {
+        return NumericCsv.load(Paths.get(path), columns);
+      }
+      try (InputStream in = getServletContext().getResourceAsStream(resource)) {
+        return NumericCsv.load(in, columns);
+      }
+    } catch (IOException e) {
+      throw new ServletException("Could not read " + resource, e);
     }
-    scanner.close();
   }
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    response.setContentType("application/json");
-    Gson gson = new Gson();
-    String json = gson.toJson(bigfootSightings);
-    response.getWriter().println(json);
+    snapshot.writeTo(request, response);
   }
 }
@@ -0,0 +1,66 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/**
+ * Quadtree cell keys for points on the map.
+ *
+ * The world, as a latitude by longitude rectangle, is split into four quadrants, each quadrant into
+ * four more and so on. A key lists which quadrant a point falls in at each level, one digit from 0
+ * to 3 per level, so the key of a cell is a prefix of the keys of every cell and point inside it
+ * and a range of keys covers one cell.
+ */
+public final class GeoCell {
+  /** Levels in a stored key; cells at this level are about 2.4 meters tall. */
+  public static final int MAX_LEVEL = 24;
+
+  private GeoCell() {}
+
+  /** Returns the key of the cell at the given level containing a point. */
+  public static String key(double lat, double lng, int level) {
+    double south = -90;
+    double west = -180;
+    double north = 90;
+    double east = 180;
+    char[] digits = new char[level];
+    for (int i = 0; i < level; i++) {
+      double midLat = (south + north) / 2;
+      double midLng = (west + east) / 2;
+      int quadrant = quadrant(lat, lng, midLat, midLng);
+      if ((quadrant & 1) != 0) {
+        west = midLng;
+      } else {
+        east = midLng;
+      }
+      if ((quadrant & 2) != 0) {
+        south = midLat;
+      } else {
+        north = midLat;
+      }
+      digits[i] = (char) ('0' + quadrant);
+    }
+    return new String(digits);
+  }
+
+  /** Returns the key of the finest cell containing a point. */
+  public static String key(double lat, double lng) {
+    return key(lat, lng, MAX_LEVEL);
+  }
+
+  /** Quadrant of a cell split at midLat and midLng: 1 is added for the east half, 2 for the north. */
+  static int quadrant(double lat, double lng, double midLat, double midLng) {
+    return (lng >= midLng ? 1 : 0) | (lat >= midLat ? 2 : 0);
+  }
+}
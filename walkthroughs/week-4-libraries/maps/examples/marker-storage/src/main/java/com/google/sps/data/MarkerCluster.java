@@ -0,0 +1,50 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/**
+ * Markers in one cell of the map shown as a single point: where they are on average, how many
+ * there are, and the content of one of them. A cell holding one marker is that marker.
+ */
+public class MarkerCluster {
+
+  private final double lat;
+  private final double lng;
+  private final int count;
+  private final String content;
+
+  public MarkerCluster(double lat, double lng, int count, String content) {
+    this.lat = lat;
+    this.lng = lng;
+    this.count = count;
+    this.content = content;
+  }
+
+  public double getLat() {
+    return lat;
+  }
+
+  public double getLng() {
+    return lng;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public String getContent() {
+    return content;
+  }
+}
@@ -0,0 +1,247 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory quadtree of markers for answering viewport queries.
+ *
+ * Nodes split the same way as GeoCell keys, so a node at depth d is the cell whose key is the first
+ * d digits of its markers' keys. A leaf splits once it holds more than LEAF_CAPACITY markers, so
+ * finding the markers in a viewport only visits the nodes overlapping it.
+ *
+ * Every node also keeps the count, coordinate sums and one content of the markers below it, updated
+ * on each insert, so the clusters for a viewport at any zoom are read off the nodes one cell wide
+ * without visiting their markers.
+ */
+public class MarkerIndex {
+  static final int LEAF_CAPACITY = 64;
+
+  private static final MarkerIndex shared = new MarkerIndex();
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Set<Long> ids = new HashSet<>();
+  private final Node root = new Node(-90, -180, 90, 180, 0);
+
+  /** Get the index shared by the servlets of this instance. */
+  public static MarkerIndex get() {
+    return shared;
+  }
+
+  /** Index a marker stored under the given id. Adding an id a second time does nothing. */
+  public void add(long id, Marker marker) {
+    lock.writeLock().lock();
+    try {
+      if (ids.add(id)) {
+        root.insert(marker);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Number of markers in the index. */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return ids.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Find the markers inside a viewport. West may be greater than east for a viewport crossing the
+   * antimeridian.
+   *
+   * @param limit maximum number of markers to return
+   */
+  public List<Marker> query(double south, double west, double north, double east, int limit) {
+    List<Marker> results = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      if (west <= east) {
+        root.collect(south, west, north, east, limit, results);
+      } else {
+        root.collect(south, west, north, 180, limit, results);
+        root.collect(south, -180, north, east, limit, results);
+      }
+      return results;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Group the markers inside a viewport into clusters, one per quadtree cell no wider than
+   * cellDegrees of longitude. Every cell overlapping the viewport is returned, so each marker inside
+   * it is counted; a cell on the edge also counts its markers just outside, and its centroid may lie
+   * outside. Leaves wider than a cell group their markers on a grid of cells of the same size.
+   *
+   * @param limit maximum number of clusters to return
+   */
+  public List<MarkerCluster> clusters(double south, double west, double north, double east, double cellDegrees,
+      int limit) {
+    List<MarkerCluster> results = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      if (west <= east) {
+        root.cluster(south, west, north, east, cellDegrees, limit, results);
+      } else {
+        root.cluster(south, west, north, 180, cellDegrees, limit, results);
+        root.cluster(south, -180, north, east, cellDegrees, limit, results);
+      }
+      return results;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** A cell of the quadtree, holding markers while it is a leaf and four children after it splits. */
+  private static class Node {
+    private final double south;
+    private final double west;
+    private final double north;
+    private final double east;
+    private final int depth;
+    private List<Marker> markers = new ArrayList<>();
+    private Node[] children;
+    private int count;
+    private double sumLat;
+    private double sumLng;
+    private String sample;
+
+    Node(double south, double west, double north, double east, int depth) {
+      this.south = south;
+      this.west = west;
+      this.north = north;
+      this.east = east;
+      this.depth = depth;
+    }
+
+    void insert(Marker marker) {
+      count++;
+      sumLat += marker.getLat();
+      sumLng += marker.getLng();
+      if (sample == null) {
+        sample = marker.getContent();
+      }
+      if (children != null) {
+        child(marker).insert(marker);
+        return;
+      }
+      markers.add(marker);
+      if (markers.size() > LEAF_CAPACITY && depth < GeoCell.MAX_LEVEL) {
+        split();
+      }
+    }
+
+    private void split() {
+      double midLat = (south + north) / 2;
+      double midLng = (west + east) / 2;
+      children = new Node[] {
+        new Node(south, west, midLat, midLng, depth + 1),
+        new Node(south, midLng, midLat, east, depth + 1),
+        new Node(midLat, west, north, midLng, depth + 1),
+        new Node(midLat, midLng, north, east, depth + 1),
+      };
+      for (Marker marker : markers) {
+        child(marker).insert(marker);
+      }
+      markers = null;
+    }
+
+    private Node child(Marker marker) {
+      double midLat = (south + north) / 2;
+      double midLng = (west + east) / 2;
+      return children[GeoCell.quadrant(marker.getLat(), marker.getLng(), midLat, midLng)];
+    }
+
+    void collect(double qSouth, double qWest, double qNorth, double qEast, int limit, List<Marker> results) {
+      if (results.size() >= limit || !overlaps(qSouth, qWest, qNorth, qEast)) {
+        return;
+      }
+      if (children != null) {
+        for (Node child : children) {
+          child.collect(qSouth, qWest, qNorth, qEast, limit, results);
+        }
+        return;
+      }
+      for (Marker marker : markers) {
+        if (results.size() >= limit) {
+          return;
+        }
+        if (contains(qSouth, qWest, qNorth, qEast, marker.getLat(), marker.getLng())) {
+          results.add(marker);
+        }
+      }
+    }
+
+    void cluster(double qSouth, double qWest, double qNorth, double qEast, double cellDegrees, int limit,
+        List<MarkerCluster> results) {
+      if (count == 0 || results.size() >= limit || !overlaps(qSouth, qWest, qNorth, qEast)) {
+        return;
+      }
+      if (east - west <= cellDegrees) {
+        results.add(new MarkerCluster(sumLat / count, sumLng / count, count, sample));
+        return;
+      }
+      if (children != null) {
+        for (Node child : children) {
+          child.cluster(qSouth, qWest, qNorth, qEast, cellDegrees, limit, results);
+        }
+        return;
+      }
+
+      // a leaf wider than a cell groups its markers on the grid of cells one level below it would have
+      double cellLatDegrees = cellDegrees / 2;
+      Map<Long, Node> cells = new LinkedHashMap<>();
+      for (Marker marker : markers) {
+        long row = (long) ((marker.getLat() - south) / cellLatDegrees);
+        long column = (long) ((marker.getLng() - west) / cellDegrees);
+        Node cell = cells.computeIfAbsent(row << 32 | column, key -> new Node(south + row * cellLatDegrees,
+            west + column * cellDegrees, south + (row + 1) * cellLatDegrees, west + (column + 1) * cellDegrees, depth));
+        cell.count++;
+        cell.sumLat += marker.getLat();
+        cell.sumLng += marker.getLng();
+        if (cell.sample == null) {
+          cell.sample = marker.getContent();
+        }
+      }
+      for (Node cell : cells.values()) {
+        if (results.size() < limit && cell.overlaps(qSouth, qWest, qNorth, qEast)) {
+          results.add(new MarkerCluster(cell.sumLat / cell.count, cell.sumLng / cell.count, cell.count, cell.sample));
+        }
+      }
+    }
+
+    private boolean overlaps(double qSouth, double qWest, double qNorth, double qEast) {
+      return qSouth <= north && qNorth >= south && qWest <= east && qEast >= west;
+    }
+
+    private static boolean contains(double qSouth, double qWest, double qNorth, double qEast, double lat,
+        double lng) {
+      return lat >= qSouth && lat <= qNorth && lng >= qWest && lng <= qEast;
+    }
+  }
+}
@@ -17,13 +17,22 @@ package com.google.sps.servlets;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.sps.data.CoordinateEncoding;
+import com.google.sps.data.GeoCell;
 import com.google.sps.data.Marker;
+import com.google.sps.data.MarkerCluster;
+import com.google.sps.data.MarkerIndex;
 import com.google.gson.Gson;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -31,20 +40,109 @@ import javax.servlet.http.HttpServletResponse;
 import org.jsoup.Jsoup;
 import org.jsoup.safety.Whitelist;
 
-/** Handles fetching and saving markers data. */
+/**
+ * Handles fetching and saving markers data.
+ *
+ * Markers are served from an in-memory MarkerIndex, so a map load only reads the markers in its
+ * viewport. The index is loaded from Datastore by WarmupServlet when the instance starts, or by the
+ * first request, which waits for it, if the instance was started without a warmup request. It then
+ * catches up every REFRESH_MILLIS with a query for markers created since, so markers saved through
+ * other instances show up within that time.
+ */
 @WebServlet("/markers")
 public class MarkerServlet extends HttpServlet {
 
-  /** Responds with a JSON array containing marker data. */
+  static final int MAX_CLUSTERS = 5000;
+  /** Cells per 256 pixel map tile width; a cell is 32 pixels wide at any zoom. */
+  static final int CELLS_PER_TILE = 8;
+  static final int MAX_ZOOM = 22;
+  static final long REFRESH_MILLIS = 30_000;
+  /** How far before the newest marker seen a catch-up query starts, to allow for clock skew and late writes. */
+  static final long CATCH_UP_OVERLAP_MILLIS = 60_000;
+
+  private static final Gson gson = new Gson();
+  private static final MarkerIndex index = MarkerIndex.get();
+
+  private static volatile boolean loaded;
+  private static volatile long nextRefresh;
+  private static long newestCreated;
+
+  /**
+   * Responds with a JSON array containing marker data. With a bounds parameter of
+   * south,west,north,east the markers in that viewport are returned as clusters, one per 32 pixel
+   * cell at the given zoom level, each with a count and the content of one of its markers. The
+   * response then grows with the size of the viewport rather than the number of markers.
+   *
+   * With format=binary the same clusters are sent as a CoordinateEncoding of their positions,
+   * followed by their counts as varints and their contents as strings, in the same order.
+   */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    response.setContentType("application/json");
+    double[] bounds = null;
+    int zoom = MAX_ZOOM;
+    try {
+      if (request.getParameter("bounds") != null) {
+        bounds = parseBounds(request.getParameter("bounds"));
+      }
+      if (request.getParameter("zoom") != null) {
+        zoom = Math.max(0, Math.min(MAX_ZOOM, Integer.parseInt(request.getParameter("zoom"))));
+      }
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
 
-    Collection<Marker> markers = getMarkers();
-    Gson gson = new Gson();
-    String json = gson.toJson(markers);
+    refreshIndex();
+    boolean binary = "binary".equals(request.getParameter("format"));
+    List<MarkerCluster> clusters;
+    if (bounds == null) {
+      Collection<Marker> markers = index.query(-90, -180, 90, 180, Integer.MAX_VALUE);
+      if (!binary) {
+        response.setContentType("application/json");
+        response.getWriter().println(gson.toJson(markers));
+        return;
+      }
+      clusters = new ArrayList<>();
+      for (Marker marker : markers) {
+        clusters.add(new MarkerCluster(marker.getLat(), marker.getLng(), 1, marker.getContent()));
+      }
+    } else {
+      double cellDegrees = 360.0 / (1L << zoom) / CELLS_PER_TILE;
+      clusters = index.clusters(bounds[0], bounds[1], bounds[2], bounds[3], cellDegrees, MAX_CLUSTERS);
+      if (!binary) {
+        response.setContentType("application/json");
+        response.getWriter().println(gson.toJson(clusters));
+        return;
+      }
+    }
 
-    response.getWriter().println(json);
+    byte[] body = encode(clusters);
+    response.setContentType(CoordinateEncoding.CONTENT_TYPE);
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  /** Encodes clusters' positions, then their counts, then their contents. */
+  static byte[] encode(List<MarkerCluster> clusters) {
+    int count = clusters.size();
+    double[] lats = new double[count];
+    double[] lngs = new double[count];
+    for (int i = 0; i < count; i++) {
+      lats[i] = clusters.get(i).getLat();
+      lngs[i] = clusters.get(i).getLng();
+    }
+    int[] order = CoordinateEncoding.order(lats, lngs, count);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(count * 16 + 8);
+    CoordinateEncoding.writeCoordinates(out, lats, lngs, order);
+    for (int i : order) {
+      CoordinateEncoding.writeVarint(out, clusters.get(i).getCount());
+    }
+    for (int i : order) {
+      String content = clusters.get(i).getContent();
+      CoordinateEncoding.writeString(out, content == null ? "" : content);
+    }
+    return out.toByteArray();
   }
 
   /** Accepts a POST request containing a new marker. */
@@ -58,33 +156,69 @@ public class MarkerServlet extends HttpServlet {
     storeMarker(marker);
   }
 
-  /** Fetches markers from Datastore. */
-  private Collection<Marker> getMarkers() {
-    Collection<Marker> markers = new ArrayList<>();
+  /** Parses south,west,north,east in degrees, as sent by LatLngBounds.toUrlValue(). */
+  static double[] parseBounds(String param) {
+    String[] parts = param.split(",");
+    if (parts.length != 4) {
+      throw new IllegalArgumentException("Expected bounds as south,west,north,east: " + param);
+    }
+    double[] bounds = new double[4];
+    for (int i = 0; i < 4; i++) {
+      bounds[i] = Double.parseDouble(parts[i].trim());
+    }
+    return bounds;
+  }
+
+  /** Loads every marker into the index on first use, then adds markers created since the last refresh. */
+  static void refreshIndex() {
+    if (loaded && System.currentTimeMillis() < nextRefresh) {
+      return;
+    }
+    synchronized (MarkerServlet.class) {
+      long start = System.currentTimeMillis();
+      if (loaded && start < nextRefresh) {
+        return;
+      }
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Query query = new Query("Marker");
-    PreparedQuery results = datastore.prepare(query);
+      DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+      Query query = new Query("Marker");
+      if (loaded) {
+        query.setFilter(new FilterPredicate("created", FilterOperator.GREATER_THAN_OR_EQUAL,
+            newestCreated - CATCH_UP_OVERLAP_MILLIS));
+      }
+      PreparedQuery results = datastore.prepare(query);
 
-    for (Entity entity : results.asIterable()) {
-      double lat = (double) entity.getProperty("lat");
-      double lng = (double) entity.getProperty("lng");
-      String content = (String) entity.getProperty("content");
+      for (Entity entity : results.asIterable(FetchOptions.Builder.withChunkSize(500))) {
+        double lat = (double) entity.getProperty("lat");
+        double lng = (double) entity.getProperty("lng");
+        String content = (String) entity.getProperty("content");
+        index.add(entity.getKey().getId(), new Marker(lat, lng, content));
 
-      Marker marker = new Marker(lat, lng, content);
-      markers.add(marker);
+        Long created = (Long) entity.getProperty("created");
+        if (created != null) {
+          newestCreated = Math.max(newestCreated, created);
+        }
+      }
+      if (!loaded) {
+        newestCreated = Math.max(newestCreated, start);
+      }
+      loaded = true;
+      nextRefresh = start + REFRESH_MILLIS;
     }
-    return markers;
   }
 
-  /** Stores a marker in Datastore. */
+  /** Stores a marker in Datastore, with the key of its cell, and adds it to this instance's index. */
   public void storeMarker(Marker marker) {
     Entity markerEntity = new Entity("Marker");
     markerEntity.setProperty("lat", marker.getLat());
     markerEntity.setProperty("lng", marker.getLng());
     markerEntity.setProperty("content", marker.getContent());
+    // only read back with the entity, never queried, so it costs no index writes
+    markerEntity.setUnindexedProperty("cell", GeoCell.key(marker.getLat(), marker.getLng()));
+    markerEntity.setProperty("created", System.currentTimeMillis());
 
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     datastore.put(markerEntity);
+    index.add(markerEntity.getKey().getId(), marker);
   }
 }
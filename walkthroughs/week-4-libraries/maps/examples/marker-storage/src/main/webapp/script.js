@@ -17,6 +17,12 @@ let map;
 /* Editable marker that displays when a user clicks in the map. */
 let editMarker;
 
+/* Markers fetched for the current viewport, replaced whenever the map moves. */
+let displayedMarkers = [];
+
+/* Counts viewport fetches so a slow response does not replace a newer one. */
+let fetchCount = 0;
+
 /** Creates a map that allows users to add markers. */
 function createMap() {
   map = new google.maps.Map(
@@ -29,19 +35,57 @@ function createMap() {
     createMarkerForEdit(event.latLng.lat(), event.latLng.lng());
   });
 
-  fetchMarkers();
+  // Fetch the markers in view whenever the user stops panning or zooming.
+  map.addListener('idle', fetchMarkers);
 }
 
-/** Fetches markers from the backend and adds them to the map. */
+/** Fetches the markers in the map's viewport and shows them instead of the previous ones. */
 function fetchMarkers() {
-  fetch('/markers').then(response => response.json()).then((markers) => {
-    markers.forEach(
-        (marker) => {
-            createMarkerForDisplay(marker.lat, marker.lng, marker.content)});
+  const params = new URLSearchParams();
+  params.append('bounds', map.getBounds().toUrlValue());
+  params.append('zoom', map.getZoom());
+  params.append('format', 'binary');
+  const fetchId = ++fetchCount;
+
+  fetch('/markers?' + params).then(response => response.arrayBuffer()).then((buffer) => {
+    if (fetchId !== fetchCount) {
+      return;
+    }
+    const markers = readMarkers(buffer);
+    displayedMarkers.forEach((marker) => marker.setMap(null));
+    displayedMarkers = markers.map(
+        (marker) => marker.count > 1 ?
+            createClusterForDisplay(marker.lat, marker.lng, marker.count) :
+            createMarkerForDisplay(marker.lat, marker.lng, marker.content));
+  });
+}
+
+/** Decodes clusters sent with format=binary: positions, then counts, then contents. */
+function readMarkers(buffer) {
+  const reader = new CoordinateReader(buffer);
+  const coordinates = reader.readCoordinates();
+  const markers = [];
+  for (let i = 0; i < coordinates.lats.length; i++) {
+    markers.push({lat: coordinates.lats[i], lng: coordinates.lngs[i]});
+  }
+  markers.forEach((marker) => marker.count = reader.readVarint());
+  markers.forEach((marker) => marker.content = reader.readString());
+  return markers;
+}
+
+/** Creates and returns a marker labeled with a cluster's size that zooms in when clicked. */
+function createClusterForDisplay(lat, lng, count) {
+  const marker = new google.maps.Marker(
+      {position: {lat: lat, lng: lng}, map: map, label: String(count)});
+
+  marker.addListener('click', () => {
+    map.setCenter(marker.getPosition());
+    map.setZoom(map.getZoom() + 2);
   });
+  return marker;
 }
 
-/** Creates a marker that shows a read-only info window when clicked. */
+/** Creates and returns a marker that shows a read-only info window when clicked. */
 function createMarkerForDisplay(lat, lng, content) {
   const marker =
       new google.maps.Marker({position: {lat: lat, lng: lng}, map: map});
@@ -50,6 +94,7 @@ function createMarkerForDisplay(lat, lng, content) {
   marker.addListener('click', () => {
     infoWindow.open(map, marker);
   });
+  return marker;
 }
 
 /** Sends a marker to the backend for saving. */
@@ -94,7 +139,7 @@ function buildInfoWindowInput(lat, lng) {
 
   button.onclick = () => {
     postMarker(lat, lng, textBox.value);
-    createMarkerForDisplay(lat, lng, textBox.value);
+    displayedMarkers.push(createMarkerForDisplay(lat, lng, textBox.value));
     editMarker.setMap(null);
   };
 
@@ -105,3 +150,60 @@ function buildInfoWindowInput(lat, lng) {
 
   return containerDiv;
 }
+
+/**
+ * Reads responses sent with format=binary, laid out as described in
+ * CoordinateEncoding.java: varints, zigzag varints for signed numbers, and
+ * coordinates as fixed-point deltas.
+ */
+class CoordinateReader {
+  constructor(buffer) {
+    this.bytes = new Uint8Array(buffer);
+    this.offset = 0;
+  }
+
+  /** Reads an unsigned varint, without bitwise operators so values past 2^31 stay exact. */
+  readVarint() {
+    let value = 0;
+    let scale = 1;
+    let byte;
+    do {
+      byte = this.bytes[this.offset++];
+      value += (byte & 0x7f) * scale;
+      scale *= 128;
+    } while (byte & 0x80);
+    return value;
+  }
+
+  /** Reads a zigzag encoded signed varint. */
+  readSigned() {
+    const value = this.readVarint();
+    return value % 2 ? -(value + 1) / 2 : value / 2;
+  }
+
+  /** Reads a UTF-8 string prefixed with its byte length. */
+  readString() {
+    const length = this.readVarint();
+    const text = new TextDecoder().decode(
+        this.bytes.subarray(this.offset, this.offset + length));
+    this.offset += length;
+    return text;
+  }
+
+  /** Reads the coordinates header and points into parallel arrays of degrees. */
+  readCoordinates() {
+    const scale = Math.pow(10, this.readVarint());
+    const count = this.readVarint();
+    const lats = new Float64Array(count);
+    const lngs = new Float64Array(count);
+    let lat = 0;
+    let lng = 0;
+    for (let i = 0; i < count; i++) {
+      lat += this.readSigned();
+      lng += this.readSigned();
+      lats[i] = lat / scale;
+      lngs[i] = lng / scale;
+    }
+    return {lats: lats, lngs: lngs};
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class MarkerIndexTest {
+  private static final double SOUTH = 9;
+  private static final double WEST = 10;
+  private static final double NORTH = 11;
+  private static final double EAST = 12;
+  /** Width of a 32 pixel cell at zoom 5, as computed by MarkerServlet. */
+  private static final double CELL_DEGREES = 360.0 / (1L << 5) / 8;
+
+  @Test
+  public void clustersOfSplitNodesCountEveryMarkerInsideTheViewport() {
+    assertClustersCountEveryMarkerInside(index(100, 300), 100);
+  }
+
+  @Test
+  public void clustersOfALeafGridCountEveryMarkerInsideTheViewport() {
+    // few enough markers that the root stays a leaf and groups them on a grid
+    assertClustersCountEveryMarkerInside(index(20, 40), 20);
+  }
+
+  @Test
+  public void clustersOfAnEmptyViewportAreEmpty() {
+    MarkerIndex index = new MarkerIndex();
+    index.add(1, new Marker(SOUTH + 1, WEST + 1, "inside"));
+
+    Assert.assertTrue(index.clusters(-40, -40, -30, -30, CELL_DEGREES, Integer.MAX_VALUE).isEmpty());
+  }
+
+  /**
+   * Index markers inside the viewport, near its west edge, and a crowd just outside that edge, in
+   * the same cells, pulling those cells' centroids out of the viewport.
+   */
+  private static MarkerIndex index(int inside, int outside) {
+    MarkerIndex index = new MarkerIndex();
+    long id = 0;
+    double latStep = (NORTH - SOUTH - 0.02) / inside;
+    for (int i = 0; i < inside; i++) {
+      index.add(id++, new Marker(SOUTH + 0.01 + i * latStep, WEST + 0.001 + (i % 10) * 0.0001, "inside " + i));
+    }
+    for (int i = 0; i < outside; i++) {
+      index.add(id++, new Marker(SOUTH + 0.01 + (i % inside) * latStep, WEST - 0.05 - (i % 7) * 0.01, "outside " + i));
+    }
+    return index;
+  }
+
+  private static void assertClustersCountEveryMarkerInside(MarkerIndex index, int expectedInside) {
+    List<Marker> inside = index.query(SOUTH, WEST, NORTH, EAST, Integer.MAX_VALUE);
+    List<MarkerCluster> clusters = index.clusters(SOUTH, WEST, NORTH, EAST, CELL_DEGREES, Integer.MAX_VALUE);
+
+    Assert.assertEquals(expectedInside, inside.size());
+    Assert.assertTrue(total(clusters) >= inside.size());
+  }
+
+  private static int total(List<MarkerCluster> clusters) {
+    int total = 0;
+    for (MarkerCluster cluster : clusters) {
+      total += cluster.getCount();
+    }
+    return total;
+  }
+}
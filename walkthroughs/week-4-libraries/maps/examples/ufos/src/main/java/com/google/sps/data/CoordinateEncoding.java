@@ -0,0 +1,139 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of map coordinates, about a fifth the size of the same points as JSON.
+ *
+ * Coordinates are rounded to PRECISION decimal digits (about a meter) and stored as integers.
+ * Points are written sorted by latitude, then longitude, each as the difference from the previous
+ * point, so most fit in a few bytes. Every number is a little-endian base-128 varint, with signed
+ * differences zigzag encoded. The layout is:
+ *
+ * <pre>
+ *   precision  varint, decimal digits kept
+ *   count      varint, number of points
+ *   points     count pairs of zigzag varints: latitude delta, longitude delta
+ * </pre>
+ *
+ * Callers may append more columns for the same points, in the order returned by order().
+ */
+public final class CoordinateEncoding {
+  public static final int PRECISION = 5;
+  public static final String CONTENT_TYPE = "application/octet-stream";
+
+  private static final double SCALE = Math.pow(10, PRECISION);
+  private static final long MAX_LAT = quantize(90);
+  private static final long MAX_LNG = quantize(180);
+  /** Bits of a packed sort key holding the longitude, enough for every value from -MAX_LNG to MAX_LNG. */
+  private static final int LNG_BITS = 64 - Long.numberOfLeadingZeros(2 * MAX_LNG);
+
+  private CoordinateEncoding() {}
+
+  /** Returns the indexes of the points in the order they are encoded. */
+  public static int[] order(double[] lats, double[] lngs, int count) {
+    long[] latitudes = new long[count];
+    long[] longitudes = new long[count];
+    Integer[] indexes = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      latitudes[i] = quantize(lats[i]);
+      longitudes[i] = quantize(lngs[i]);
+      indexes[i] = i;
+    }
+    Arrays.sort(indexes, (a, b) -> latitudes[a] != latitudes[b]
+        ? Long.compare(latitudes[a], latitudes[b])
+        : Long.compare(longitudes[a], longitudes[b]));
+
+    int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = indexes[i];
+    }
+    return order;
+  }
+
+  /** Writes the header and the points in the given order. */
+  public static void writeCoordinates(ByteArrayOutputStream out, double[] lats, double[] lngs, int[] order) {
+    writeVarint(out, PRECISION);
+    writeVarint(out, order.length);
+    long lastLat = 0;
+    long lastLng = 0;
+    for (int i : order) {
+      long lat = quantize(lats[i]);
+      long lng = quantize(lngs[i]);
+      writeSigned(out, lat - lastLat);
+      writeSigned(out, lng - lastLng);
+      lastLat = lat;
+      lastLng = lng;
+    }
+  }
+
+  /**
+   * Encodes points with no other columns. The points are sorted as packed primitive keys rather
+   * than through order(), so large datasets encode without an object per point.
+   */
+  public static byte[] encode(double[] lats, double[] lngs, int count) {
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      long lat = Math.max(-MAX_LAT, Math.min(MAX_LAT, quantize(lats[i])));
+      long lng = Math.max(-MAX_LNG, Math.min(MAX_LNG, quantize(lngs[i])));
+      keys[i] = (lat + MAX_LAT) << LNG_BITS | (lng + MAX_LNG);
+    }
+    Arrays.sort(keys);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(count * 4 + 8);
+    writeVarint(out, PRECISION);
+    writeVarint(out, count);
+    long lastLat = 0;
+    long lastLng = 0;
+    for (long key : keys) {
+      long lat = (key >>> LNG_BITS) - MAX_LAT;
+      long lng = (key & ((1L << LNG_BITS) - 1)) - MAX_LNG;
+      writeSigned(out, lat - lastLat);
+      writeSigned(out, lng - lastLng);
+      lastLat = lat;
+      lastLng = lng;
+    }
+    return out.toByteArray();
+  }
+
+  /** Writes an unsigned varint, 7 bits per byte with the high bit set on all but the last. */
+  public static void writeVarint(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  /** Writes a signed varint, zigzag encoded so small negative numbers stay short. */
+  public static void writeSigned(ByteArrayOutputStream out, long value) {
+    writeVarint(out, (value << 1) ^ (value >> 63));
+  }
+
+  /** Writes a string as its UTF-8 byte length and bytes. */
+  public static void writeString(ByteArrayOutputStream out, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  static long quantize(double degrees) {
+    return Math.round(degrees * SCALE);
+  }
+}
@@ -14,45 +14,78 @@
 
 package com.google.sps.servlets;
 
-import com.google.sps.data.UfoSighting;
-import com.google.gson.Gson;
+import com.google.sps.data.CoordinateEncoding;
+import com.google.sps.data.NumericCsv;
+import com.google.sps.data.ResponseSnapshot;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Scanner;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Returns UFO data as a JSON array, e.g. [{"lat": 38.4404675, "lng": -122.7144313}] */
+/**
+ * Returns UFO data as a JSON array, e.g. [{"lat": 38.4404675, "lng": -122.7144313}], or with
+ * format=binary as the smaller CoordinateEncoding of the same points.
+ */
 @WebServlet("/ufo-data")
 public class UfoDataServlet extends HttpServlet {
 
-  private Collection<UfoSighting> ufoSightings;
+  /** Sighting coordinates as columns, so a large file costs two doubles per sighting and no objects. */
+  private double[] lats;
+  private double[] lngs;
+  private ResponseSnapshot snapshot;
+  private ResponseSnapshot binarySnapshot;
 
   @Override
-  public void init() {
-    ufoSightings = new ArrayList<>();
+  public void init() throws ServletException {
+    double[][] columns = loadColumns("/WEB-INF/ufo-data.csv", 2);
+    lats = columns[0];
+    lngs = columns[1];
 
-    Scanner scanner = new Scanner(getServletContext().getResourceAsStream("/WEB-INF/ufo-data.csv"));
-    while (scanner.hasNextLine()) {
-      String line = scanner.nextLine();
-      String[] cells = line.split(",");
+    // the data never changes, so serialize and compress it once rather than on every request
+    snapshot = ResponseSnapshot.of(0, "application/json", toJson(lats, lngs) + "\n");
+    binarySnapshot = ResponseSnapshot.of(0, CoordinateEncoding.CONTENT_TYPE,
+        CoordinateEncoding.encode(lats, lngs, lats.length));
+  }
 
-      double lat = Double.parseDouble(cells[0]);
-      double lng = Double.parseDouble(cells[1]);
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if ("binary".equals(request.getParameter("format"))) {
+      binarySnapshot.writeTo(request, response);
+    } else {
+      snapshot.writeTo(request, response);
+    }
+  }
 
-      ufoSightings.add(new UfoSighting(lat, lng));
+  /** Writes the columns as the JSON Gson made of one object per sighting. */
+  static String toJson(double[] lats, double[] lngs) {
+    StringBuilder json = new StringBuilder(lats.length * 40 + 2);
+    json.append('[');
+    for (int i = 0; i < lats.length; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("{\"lat\":").append(lats[i]).append(",\"lng\":").append(lngs[i]).append('}');
     }
-    scanner.close();
+    return json.append(']').toString();
   }
 
-  @Override
-  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    response.setContentType("application/json");
-    Gson gson = new Gson();
-    String json = gson.toJson(ufoSightings);
-    response.getWriter().println(json);
+  /** Loads a CSV file from the webapp, mapping it when the webapp is unpacked on disk. */
+  private double[][] loadColumns(String resource, int columns) throws ServletException {
+    try {
+      String path = getServletContext().getRealPath(resource);
+      if (path != null && Files.isRegularFile(Paths.get(path))) {
+        return NumericCsv.load(Paths.get(path), columns);
+      }
+      try (InputStream in = getServletContext().getResourceAsStream(resource)) {
+        return NumericCsv.load(in, columns);
+      }
+    } catch (IOException e) {
+      throw new ServletException("Could not read " + resource, e);
+    }
   }
 }
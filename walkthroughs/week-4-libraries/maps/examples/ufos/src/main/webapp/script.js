@@ -14,14 +14,73 @@
 
 /** Fetches UFO sightings data from the server and displays it in a map. */
 function createUfoSightingsMap() {
-  fetch('/ufo-data').then(response => response.json()).then((ufoSightings) => {
+  fetch('/ufo-data?format=binary').then(response => response.arrayBuffer()).then((buffer) => {
+    const ufoSightings = new CoordinateReader(buffer).readCoordinates();
     const map = new google.maps.Map(
         document.getElementById('map'),
         {center: {lat: 35.78613674, lng: -119.4491591}, zoom: 7});
 
-    ufoSightings.forEach((ufoSighting) => {
+    for (let i = 0; i < ufoSightings.lats.length; i++) {
       new google.maps.Marker(
-          {position: {lat: ufoSighting.lat, lng: ufoSighting.lng}, map: map});
-    });
+          {position: {lat: ufoSightings.lats[i], lng: ufoSightings.lngs[i]}, map: map});
+    }
   });
 }
+
+/**
+ * Reads responses sent with format=binary, laid out as described in
+ * CoordinateEncoding.java: varints, zigzag varints for signed numbers, and
+ * coordinates as fixed-point deltas.
+ */
+class CoordinateReader {
+  constructor(buffer) {
+    this.bytes = new Uint8Array(buffer);
+    this.offset = 0;
+  }
+
+  /** Reads an unsigned varint, without bitwise operators so values past 2^31 stay exact. */
+  readVarint() {
+    let value = 0;
+    let scale = 1;
+    let byte;
+    do {
+      byte = this.bytes[this.offset++];
+      value += (byte & 0x7f) * scale;
+      scale *= 128;
+    } while (byte & 0x80);
+    return value;
+  }
+
+  /** Reads a zigzag encoded signed varint. */
+  readSigned() {
+    const value = this.readVarint();
+    return value % 2 ? -(value + 1) / 2 : value / 2;
+  }
+
+  /** Reads a UTF-8 string prefixed with its byte length. */
+  readString() {
+    const length = this.readVarint();
+    const text = new TextDecoder().decode(
+        this.bytes.subarray(this.offset, this.offset + length));
+    this.offset += length;
+    return text;
+  }
+
+  /** Reads the coordinates header and points into parallel arrays of degrees. */
+  readCoordinates() {
+    const scale = Math.pow(10, this.readVarint());
+    const count = this.readVarint();
+    const lats = new Float64Array(count);
+    const lngs = new Float64Array(count);
+    let lat = 0;
+    let lng = 0;
+    for (let i = 0; i < count; i++) {
+      lat += this.readSigned();
+      lng += this.readSigned();
+      lats[i] = lat / scale;
+      lngs[i] = lng / scale;
+    }
+    return {lats: lats, lngs: lngs};
+  }
+}
+
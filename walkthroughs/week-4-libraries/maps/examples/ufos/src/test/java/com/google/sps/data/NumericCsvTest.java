@@ -0,0 +1,100 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class NumericCsvTest {
+  private static final int FUZZ_ROWS = 200_000;
+
+  @Test
+  public void parsesColumnsSkippingBlankLinesAndExtraColumns() {
+    double[][] columns = parse("1.5,-2,ignored\r\n\n 3 , 4e2 \n-0.25,+7\n", 2);
+
+    Assert.assertArrayEquals(new double[] {1.5, 3, -0.25}, columns[0], 0);
+    Assert.assertArrayEquals(new double[] {-2, 400, 7}, columns[1], 0);
+  }
+
+  @Test
+  public void matchesDoubleParseDoubleOnRandomNumbers() {
+    Random random = new Random(42);
+    String[] texts = new String[FUZZ_ROWS];
+    StringBuilder csv = new StringBuilder();
+    for (int i = 0; i < FUZZ_ROWS; i++) {
+      texts[i] = randomNumber(random);
+      csv.append(texts[i]).append('\n');
+    }
+
+    double[] parsed = parse(csv.toString(), 1)[0];
+
+    Assert.assertEquals(FUZZ_ROWS, parsed.length);
+    for (int i = 0; i < FUZZ_ROWS; i++) {
+      long expected = Double.doubleToLongBits(Double.parseDouble(texts[i]));
+      if (Double.doubleToLongBits(parsed[i]) != expected) {
+        Assert.fail(texts[i] + " parsed as " + parsed[i] + " instead of " + Double.parseDouble(texts[i]));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsFieldsThatAreNotNumbers() {
+    parse("1,2\n3,abc\n", 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsShortLines() {
+    parse("1,2\n3\n", 2);
+  }
+
+  /** Make a number the way data files write them, from short decimals to long and exponent forms. */
+  private static String randomNumber(Random random) {
+    switch (random.nextInt(5)) {
+      case 0:
+        return Double.toString(random.nextDouble() * 360 - 180);
+      case 1:
+        double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(8));
+        return String.format(Locale.ROOT, "%." + random.nextInt(10) + "f", value);
+      case 2:
+        return Long.toString(random.nextLong() >> random.nextInt(64));
+      case 3:
+        // 15 to 20 significant digits, either side of the fast path's limit
+        StringBuilder digits = new StringBuilder(random.nextBoolean() ? "-" : "");
+        int length = 15 + random.nextInt(6);
+        int point = random.nextInt(length + 1);
+        for (int i = 0; i < length; i++) {
+          if (i == point) {
+            digits.append('.');
+          }
+          digits.append((char) ('0' + (i == 0 ? 1 + random.nextInt(9) : random.nextInt(10))));
+        }
+        return digits.toString();
+      default:
+        return Double.toString(Double.longBitsToDouble(random.nextLong() & 0x7fefffffffffffffL));
+    }
+  }
+
+  private static double[][] parse(String csv, int columns) {
+    return NumericCsv.parse(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)), columns);
+  }
+}
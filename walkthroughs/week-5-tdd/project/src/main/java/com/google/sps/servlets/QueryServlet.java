@@ -20,6 +20,7 @@ import com.google.sps.MeetingRequest;
 import com.google.sps.TimeRange;
 import com.google.gson.Gson;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.Arrays;
 import java.util.Collection;
 import javax.servlet.annotation.WebServlet;
@@ -29,12 +30,22 @@ import javax.servlet.http.HttpServletResponse;
 
 @WebServlet("/query")
 public class QueryServlet extends HttpServlet {
+  // Gson caches the adapters it builds for each class, so one instance is shared by every request.
+  private static final Gson gson = new Gson();
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Gson gson = new Gson();
+    String jsonResponse = answer(request.getReader());
+
+    // Send the JSON back as the response
+    response.setContentType("application/json");
+    response.getWriter().println(jsonResponse);
+  }
 
+  /** Answer a meeting request given as JSON with the possible meeting times as JSON. */
+  static String answer(Reader json) {
     // Convert the JSON to an instance of MeetingRequest.
-    MeetingRequest meetingRequest = gson.fromJson(request.getReader(), MeetingRequest.class);
+    MeetingRequest meetingRequest = gson.fromJson(json, MeetingRequest.class);
 
     // Find the possible meeting times.
     FindMeetingQuery findMeetingQuery = new FindMeetingQuery();
@@ -42,10 +53,11 @@ public class QueryServlet extends HttpServlet {
         findMeetingQuery.query(Arrays.asList(Events.events), meetingRequest);
 
     // Convert the times to JSON
-    String jsonResponse = gson.toJson(answer);
+    return gson.toJson(answer);
+  }
 
-    // Send the JSON back as the response
-    response.setContentType("application/json");
-    response.getWriter().println(jsonResponse);
+  /** Serialize a meeting request the way the page sends it. */
+  static String toJson(MeetingRequest meetingRequest) {
+    return gson.toJson(meetingRequest);
   }
 }
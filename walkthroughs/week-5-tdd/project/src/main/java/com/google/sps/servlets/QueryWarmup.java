@@ -0,0 +1,72 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.Event;
+import com.google.sps.Events;
+import com.google.sps.MeetingRequest;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Synthetic meeting requests run through the query path before real traffic arrives, so the
+ * first user request does not pay for class loading, Gson's reflection and JIT compilation.
+ */
+final class QueryWarmup {
+  static final int ROUNDS = 50;
+  private static final long[] DURATIONS = {15, 30, 60, 120};
+
+  private QueryWarmup() {}
+
+  /**
+   * Answer requests for every attendee alone and in pairs, with optional attendees, at several
+   * durations.
+   *
+   * @return the number of queries answered
+   */
+  static int run(int rounds) {
+    List<String> people = new ArrayList<>(attendees());
+    List<String> requests = new ArrayList<>();
+    for (int i = 0; i < people.size(); i++) {
+      List<String> required = new ArrayList<>();
+      required.add(people.get(i));
+      if (i + 1 < people.size()) {
+        required.add(people.get(i + 1));
+      }
+      MeetingRequest request = new MeetingRequest(required, DURATIONS[i % DURATIONS.length]);
+      request.addOptionalAttendee(people.get((i + 2) % people.size()));
+      requests.add(QueryServlet.toJson(request));
+    }
+
+    int answered = 0;
+    for (int round = 0; round < rounds; round++) {
+      for (String json : requests) {
+        QueryServlet.answer(new StringReader(json));
+        answered++;
+      }
+    }
+    return answered;
+  }
+
+  private static TreeSet<String> attendees() {
+    TreeSet<String> attendees = new TreeSet<>();
+    for (Event event : Events.events) {
+      attendees.addAll(event.getAttendees());
+    }
+    return attendees;
+  }
+}
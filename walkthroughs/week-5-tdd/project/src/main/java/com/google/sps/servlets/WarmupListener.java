@@ -0,0 +1,34 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Runs a round of synthetic queries when the app starts, for instances that are started without
+ * a warmup request, such as the dev server.
+ */
+@WebListener
+public class WarmupListener implements ServletContextListener {
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    QueryWarmup.run(1);
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {}
+}